@@ -1,4 +1,4 @@
-import zmq, json, gzip, xml.sax
+import zmq, json, base64
 
 import numpy as np
 import numpy.linalg as la
@@ -13,21 +13,25 @@ with maximum wait time
 interval = 30
 algorithm = "bipartite-matching" # best-response
 
-# Load the network to obtain link coordinates
-class NetworkHandler(xml.sax.ContentHandler):
+# Obtain the link coordinates from MATSim once the conversation has started
+class NetworkHandler:
     def __init__(self):
-        self.node_coordinates = {}
-        self.link_coordinates = {}
+        self.link_coordinates = None
 
-    def startElement(self, name, attributes):
-        if name == "node":
-            self.node_coordinates[attributes["id"]] = np.array((float(attributes["x"]), float(attributes["y"])))
-        elif name == "link":
-            self.link_coordinates[attributes["id"]] = 0.5 * (self.node_coordinates[attributes["from"]] + self.node_coordinates[attributes["to"]])
+    def load(self, socket):
+        socket.send(json.dumps({ "@message": "network_query", "withIds": True }).encode())
+        response = json.loads(socket.recv())
+
+        nodes = np.frombuffer(base64.b64decode(response["nodeCoordinates"]), dtype = "<f8").reshape(-1, 2)
+        from_nodes = np.frombuffer(base64.b64decode(response["fromNodes"]), dtype = "<i4")
+        to_nodes = np.frombuffer(base64.b64decode(response["toNodes"]), dtype = "<i4")
+
+        self.link_coordinates = {
+            link: 0.5 * (nodes[from_nodes[k]] + nodes[to_nodes[k]])
+            for k, link in enumerate(response["links"]) if link is not None
+        }
 
 network_handler = NetworkHandler()
-with gzip.open("../scenario/network.xml.gz") as f:
-    xml.sax.parse(f, network_handler)
 
 # start ZMQ
 context = zmq.Context()
@@ -59,6 +63,9 @@ while True:
 
     # A new iteration has started
     if state["@message"] == "iteration":
+        if network_handler.link_coordinates is None:
+            network_handler.load(socket)
+
         requests, vehicles = {}, {}
         statistics = { k: 0 for k in statistics.keys() }
 
@@ -1,4 +1,4 @@
-import zmq, json, gzip, xml.sax
+import zmq, json, base64
 import numpy as np
 import networkx as nx
 
@@ -14,26 +14,35 @@ travel_time_interval = 600
 # Initialize RNG
 random_state = np.random.RandomState(seed)
 
-# Load the network to obtain link coordinates
-class NetworkHandler(xml.sax.ContentHandler):
+# Obtain the network graph from MATSim once the conversation has started
+class NetworkHandler:
     def __init__(self):
-        self.graph = nx.DiGraph()
+        self.graph = None
         self.from_node = {}
         self.to_node = {}
         self.links = {}
 
-    def startElement(self, name, attributes):
-        if name == "link":
-            travel_time = float(attributes["length"]) / float(attributes["freespeed"])
-            self.graph.add_edge(attributes["from"], attributes["to"], travel_time = travel_time)
-            
-            self.from_node[attributes["id"]] = attributes["from"]
-            self.to_node[attributes["id"]] = attributes["to"]
-            self.links[(attributes["from"], attributes["to"])] = attributes["id"]
-        
+    def load(self, socket):
+        socket.send(json.dumps({ "@message": "network_query", "format": "float64", "withIds": True }).encode())
+        response = json.loads(socket.recv())
+
+        from_nodes = np.frombuffer(base64.b64decode(response["fromNodes"]), dtype = "<i4")
+        to_nodes = np.frombuffer(base64.b64decode(response["toNodes"]), dtype = "<i4")
+        lengths = np.frombuffer(base64.b64decode(response["lengths"]), dtype = "<f8")
+        freespeeds = np.frombuffer(base64.b64decode(response["freespeeds"]), dtype = "<f8")
+
+        self.graph = nx.DiGraph()
+
+        for k, link in enumerate(response["links"]):
+            if link is not None:
+                u, v = response["nodes"][from_nodes[k]], response["nodes"][to_nodes[k]]
+                self.graph.add_edge(u, v, travel_time = lengths[k] / freespeeds[k])
+
+                self.from_node[link] = u
+                self.to_node[link] = v
+                self.links[(u, v)] = link
+
 network = NetworkHandler()
-with gzip.open("../scenario/network.xml.gz") as f:
-    xml.sax.parse(f, network)
 
 # start ZMQ
 context = zmq.Context()
@@ -51,6 +60,9 @@ socket.send(json.dumps({
 vehicles = {}
 requests = {}
 
+# link order of the packed travel times
+travel_time_links = None
+
 # loop over the time steps
 while True:
     # MATSim sends us the state
@@ -62,7 +74,11 @@ while True:
 
     # A new iteration has started
     if state["@message"] == "iteration":
+        if network.graph is None:
+            network.load(socket)
+
         vehicles, requests = {}, {} # reset
+        travel_time_links = None
 
         for vehicle in state["vehicles"]:
             # track all the available vehicles
@@ -169,16 +185,26 @@ while True:
 
     if time % travel_time_interval == 0 and travel_time_interval > 0:
         print("updating network travel times ...")
-        # request travel times and update network
-        travel_time_query = { "@message": "travel_time_query" }
+        # request travel times as a packed array and update network
+        travel_time_query = { 
+            "@message": "travel_time_query", 
+            "format": "float32", 
+            "withLinks": travel_time_links is None # link order is fixed per iteration
+        }
         socket.send(json.dumps(travel_time_query).encode())
 
-        travel_time_response = state = json.loads(socket.recv())
+        travel_time_response = json.loads(socket.recv())
         data = {}
 
-        for link, value in travel_time_response["travelTimes"].items():
-            u, v = network.from_node[link], network.to_node[link]
-            data[(u, v)] = { "travel_time": value }
+        if travel_time_links is None:
+            travel_time_links = travel_time_response["links"]
+
+        values = np.frombuffer(base64.b64decode(travel_time_response["packed"]), dtype = "<f4")
+
+        for link, value in zip(travel_time_links, values):
+            if link in network.from_node:
+                u, v = network.from_node[link], network.to_node[link]
+                data[(u, v)] = { "travel_time": float(value) }
 
         nx.set_edge_attributes(network.graph, data)
         print("  done.")
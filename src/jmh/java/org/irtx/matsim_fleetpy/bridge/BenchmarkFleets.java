@@ -0,0 +1,83 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.irtx.matsim_fleetpy.bridge.communication.CommunicationManager;
+import org.irtx.matsim_fleetpy.bridge.communication.CommunicationServer;
+import org.irtx.matsim_fleetpy.bridge.communication.InProcessTransport;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.drt.schedule.DrtTaskFactory;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleImpl;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.schedule.Schedule;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.router.util.TravelTime;
+
+import com.google.common.collect.ImmutableMap;
+
+class BenchmarkFleets {
+    private BenchmarkFleets() {
+    }
+
+    /**
+     * Vehicles that stay on random links for the whole day.
+     */
+    static Fleet createIdleFleet(Network network, List<Link> links, int fleetSize, Random random,
+            DrtTaskFactory taskFactory) {
+        ImmutableMap.Builder<Id<DvrpVehicle>, DvrpVehicle> vehicles = ImmutableMap.builder();
+
+        for (int i = 0; i < fleetSize; i++) {
+            DvrpVehicleSpecification specification = ImmutableDvrpVehicleSpecification.newBuilder() //
+                    .id(Id.create("drt:" + i, DvrpVehicle.class)) //
+                    .serviceBeginTime(0.0) //
+                    .serviceEndTime(24.0 * 3600.0) //
+                    .capacity(4) //
+                    .startLinkId(links.get(random.nextInt(links.size())).getId()) //
+                    .build();
+
+            DvrpVehicle vehicle = DvrpVehicleImpl.create(specification, network);
+            vehicles.put(vehicle.getId(), vehicle);
+
+            Schedule schedule = vehicle.getSchedule();
+            schedule.addTask(taskFactory.createStayTask(vehicle, 0.0, vehicle.getServiceEndTime(),
+                    vehicle.getStartLink()));
+            schedule.nextTask();
+        }
+
+        ImmutableMap<Id<DvrpVehicle>, DvrpVehicle> fleetVehicles = vehicles.build();
+        return () -> fleetVehicles;
+    }
+
+    /**
+     * An optimizer with an in-process manager that is never started, so the
+     * benchmarks call its phases directly.
+     */
+    static FleetPyOptimizer createOptimizer(Network network, Fleet fleet, DrtTaskFactory taskFactory,
+            TravelTime travelTime, BridgeRouter router) throws IOException {
+        File metricsFile = File.createTempFile("fleetpy_timing", ".csv");
+        metricsFile.deleteOnExit();
+
+        File histogramFile = File.createTempFile("fleetpy_timing_histogram", ".csv");
+        histogramFile.deleteOnExit();
+
+        BridgeMetrics metrics = new BridgeMetrics("drt", metricsFile.getPath(), histogramFile.getPath());
+        CommunicationServer server = new CommunicationServer(new InProcessTransport());
+        CommunicationManager communicationManager = new CommunicationManager("drt", server, 0.0, metrics, null,
+                null);
+
+        FleetPyOptimizer optimizer = new FleetPyOptimizer(communicationManager, null, fleet, network, taskFactory,
+                travelTime, router, EventsUtils.createEventsManager(), new FleetPyCoordinator(server), metrics,
+                new VehicleIndex(VehicleIndex.DEFAULT_CELL_SIZE), new InsertionManager(router), "drt");
+
+        optimizer.setIdEncoder(new IdEncoder(network, fleet, false));
+        return optimizer;
+    }
+}
@@ -0,0 +1,32 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
+import org.matsim.core.network.io.MatsimNetworkReader;
+
+public class BenchmarkNetworks {
+    private BenchmarkNetworks() {
+    }
+
+    public static Network loadCarNetwork(String path) {
+        Network fullNetwork = NetworkUtils.createNetwork();
+        new MatsimNetworkReader(fullNetwork).readFile(path);
+
+        Network network = NetworkUtils.createNetwork();
+        new TransportModeNetworkFilter(fullNetwork).filter(network, Collections.singleton("car"));
+
+        return network;
+    }
+
+    public static List<Link> sortedLinks(Network network) {
+        List<Link> links = new ArrayList<>(network.getLinks().values());
+        links.sort((a, b) -> a.getId().compareTo(b.getId()));
+        return links;
+    }
+}
@@ -0,0 +1,92 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CreatePathBenchmark {
+    @Param("scenario/network.xml.gz")
+    String networkPath;
+
+    @Param("10000")
+    double minimumDistance;
+
+    private final int numberOfRoutes = 100;
+
+    private TravelTime travelTime;
+    private List<List<Link>> routes;
+
+    @Setup
+    public void setup() {
+        Network network = BenchmarkNetworks.loadCarNetwork(networkPath);
+        List<Link> links = BenchmarkNetworks.sortedLinks(network);
+
+        travelTime = new FreeSpeedTravelTime();
+
+        LeastCostPathCalculator router = new SpeedyALTFactory().createPathCalculator(network,
+                new OnlyTimeDependentTravelDisutility(travelTime), travelTime);
+
+        Random random = new Random(0);
+        routes = new ArrayList<>(numberOfRoutes);
+
+        // long routes between links that are far apart
+        while (routes.size() < numberOfRoutes) {
+            Link fromLink = links.get(random.nextInt(links.size()));
+            Link toLink = links.get(random.nextInt(links.size()));
+
+            if (CoordUtils.calcEuclideanDistance(fromLink.getCoord(), toLink.getCoord()) < minimumDistance) {
+                continue;
+            }
+
+            VrpPathWithTravelData path = VrpPaths.calcAndCreatePath(fromLink, toLink, 8.0 * 3600.0, router,
+                    travelTime);
+
+            List<Link> route = new ArrayList<>(path.getLinkCount());
+            for (int k = 0; k < path.getLinkCount(); k++) {
+                route.add(path.getLink(k));
+            }
+
+            routes.add(route);
+        }
+    }
+
+    @Benchmark
+    public double createPaths() {
+        double total = 0.0;
+
+        for (List<Link> route : routes) {
+            total += FleetPyOptimizer.createPath(route, 8.0 * 3600.0, travelTime).getTravelTime();
+        }
+
+        return total;
+    }
+}
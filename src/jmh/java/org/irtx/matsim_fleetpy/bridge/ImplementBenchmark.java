@@ -0,0 +1,94 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.drt.schedule.DrtTaskFactory;
+import org.matsim.contrib.drt.schedule.DrtTaskFactoryImpl;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rebuilds the schedules of a synthetic fleet of idle vehicles that are sent
+ * through a number of waypoints. The schedules are cleared at the start of
+ * every call, so each invocation performs the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImplementBenchmark {
+    @Param("scenario/network.xml.gz")
+    String networkPath;
+
+    @Param({ "100", "2000" })
+    int fleetSize;
+
+    @Param({ "1", "4" })
+    int stopsPerVehicle;
+
+    private final double now = 8.0 * 3600.0;
+
+    private FleetPyOptimizer optimizer;
+    private BridgeRouter router;
+    private AssignmentBuffer assignment;
+
+    @Setup
+    public void setup() throws IOException {
+        Network network = BenchmarkNetworks.loadCarNetwork(networkPath);
+        List<Link> links = BenchmarkNetworks.sortedLinks(network);
+        Random random = new Random(0);
+
+        TravelTime travelTime = new FreeSpeedTravelTime();
+        DrtTaskFactory taskFactory = new DrtTaskFactoryImpl();
+        Fleet fleet = BenchmarkFleets.createIdleFleet(network, links, fleetSize, random, taskFactory);
+
+        router = new BridgeRouter(network, travelTime, Runtime.getRuntime().availableProcessors(),
+                BridgeRouter.DEFAULT_CACHE_SIZE, BridgeRouter.DEFAULT_CACHE_BIN_SIZE);
+
+        optimizer = BenchmarkFleets.createOptimizer(network, fleet, taskFactory, travelTime, router);
+
+        // waypoints without requests, spaced so that the vehicles wait in between
+        assignment = new AssignmentBuffer();
+        assignment.startAssignment();
+
+        for (DvrpVehicle vehicle : fleet.getVehicles().values()) {
+            assignment.vehicle(vehicle);
+
+            for (int k = 0; k < stopsPerVehicle; k++) {
+                assignment.stop(links.get(random.nextInt(links.size())), List.of(), List.of(), null,
+                        now + (k + 1) * 3600.0, 0.0, null);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        router.notifyShutdown(null);
+    }
+
+    @Benchmark
+    public void implement() {
+        optimizer.implement(assignment, now);
+    }
+}
@@ -0,0 +1,83 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.irtx.matsim_fleetpy.bridge.communication.StateBuffer;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.drt.schedule.DrtTaskFactory;
+import org.matsim.contrib.drt.schedule.DrtTaskFactoryImpl;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the state of the optimizer for a synthetic fleet of idle vehicles. All
+ * vehicles are marked as changed before every call, so each invocation
+ * rebuilds the whole fleet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StateBuildBenchmark {
+    @Param("scenario/network.xml.gz")
+    String networkPath;
+
+    @Param({ "1000", "10000", "50000" })
+    int fleetSize;
+
+    private final double now = 8.0 * 3600.0;
+
+    private FleetPyOptimizer optimizer;
+    private BridgeRouter router;
+    private Fleet fleet;
+
+    @Setup
+    public void setup() throws IOException {
+        Network network = BenchmarkNetworks.loadCarNetwork(networkPath);
+        List<Link> links = BenchmarkNetworks.sortedLinks(network);
+
+        TravelTime travelTime = new FreeSpeedTravelTime();
+        DrtTaskFactory taskFactory = new DrtTaskFactoryImpl();
+        fleet = BenchmarkFleets.createIdleFleet(network, links, fleetSize, new Random(0), taskFactory);
+
+        router = new BridgeRouter(network, travelTime, 1, BridgeRouter.DEFAULT_CACHE_SIZE,
+                BridgeRouter.DEFAULT_CACHE_BIN_SIZE);
+
+        optimizer = BenchmarkFleets.createOptimizer(network, fleet, taskFactory, travelTime, router);
+        optimizer.startState();
+    }
+
+    @TearDown
+    public void tearDown() {
+        router.notifyShutdown(null);
+    }
+
+    @Benchmark
+    public StateBuffer buildState() {
+        for (DvrpVehicle vehicle : fleet.getVehicles().values()) {
+            optimizer.markDirty(vehicle.getId());
+        }
+
+        return optimizer.buildState(now);
+    }
+}
@@ -0,0 +1,56 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.concurrent.TimeUnit;
+
+import org.irtx.matsim_fleetpy.bridge.communication.messages.TravelTimeQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.TravelTimeResponse;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TravelTimeManagerBenchmark {
+    @Param("scenario/network.xml.gz")
+    String networkPath;
+
+    @Param({ "map", "float32" })
+    String format;
+
+    private TravelTimeManager manager;
+    private IdEncoder ids;
+    private TravelTimeQuery query;
+
+    @Setup
+    public void setup() {
+        Network network = BenchmarkNetworks.loadCarNetwork(networkPath);
+
+        manager = new TravelTimeManager(network, new FreeSpeedTravelTime());
+        manager.notifyIterationStarts(null);
+
+        // the fleet is only needed in indexed mode
+        ids = new IdEncoder(network, null, false);
+
+        query = new TravelTimeQuery();
+        query.format = format;
+    }
+
+    @Benchmark
+    public TravelTimeResponse queryAllLinks() {
+        return manager.handle(query, 8.0 * 3600.0, ids);
+    }
+}
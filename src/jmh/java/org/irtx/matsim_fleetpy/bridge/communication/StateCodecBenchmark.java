@@ -0,0 +1,121 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.irtx.matsim_fleetpy.bridge.BenchmarkNetworks;
+import org.irtx.matsim_fleetpy.bridge.IdEncoder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleImpl;
+import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * Encoding full states for synthetic fleets, with the object mapper and with
+ * the streaming writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StateCodecBenchmark {
+    @Param("scenario/network.xml.gz")
+    String networkPath;
+
+    @Param({ "1000", "10000", "50000" })
+    int fleetSize;
+
+    @Param({ "json", "cbor" })
+    String codec;
+
+    private ObjectMapper mapper;
+    private StateWriter writer;
+    private IdEncoder ids;
+    private StateBuffer state;
+
+    @Setup
+    public void setup() {
+        Network network = BenchmarkNetworks.loadCarNetwork(networkPath);
+        List<Link> links = BenchmarkNetworks.sortedLinks(network);
+
+        mapper = codec.equals("cbor") ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+        writer = new StateWriter(mapper.getFactory(), false);
+        ids = new IdEncoder(network, null, false);
+        state = buildState(network, links);
+    }
+
+    private StateBuffer buildState(Network network, List<Link> links) {
+        Random random = new Random(0);
+        double time = 8.0 * 3600.0;
+
+        List<DvrpVehicle> vehicles = new ArrayList<>(fleetSize);
+        for (int i = 0; i < fleetSize; i++) {
+            vehicles.add(DvrpVehicleImpl.create(ImmutableDvrpVehicleSpecification.newBuilder() //
+                    .id(Id.create("drt:" + i, DvrpVehicle.class)) //
+                    .serviceBeginTime(0.0) //
+                    .serviceEndTime(24.0 * 3600.0) //
+                    .capacity(4) //
+                    .startLinkId(links.get(0).getId()) //
+                    .build(), network));
+        }
+
+        StateBuffer state = new StateBuffer();
+        state.start(vehicles);
+        state.clear(time);
+
+        for (int i = 0; i < fleetSize; i++) {
+            DvrpVehicle vehicle = vehicles.get(i);
+            double currentExitTime = time + random.nextDouble() * 60.0;
+
+            state.setVehicle(vehicle, i % 3 == 0 ? "stay" : (i % 3 == 1 ? "drive" : "stop"),
+                    links.get(random.nextInt(links.size())), currentExitTime,
+                    links.get(random.nextInt(links.size())), currentExitTime + random.nextDouble() * 30.0);
+
+            if (i % 10 == 0) {
+                state.addFinished(vehicle, List.of("stop:" + i));
+            }
+
+            state.select(vehicle);
+        }
+
+        // about one new request per 20 vehicles
+        for (int i = 0; i < fleetSize / 20; i++) {
+            state.addSubmitted(Id.create("request:" + i, Request.class), links.get(random.nextInt(links.size())),
+                    links.get(random.nextInt(links.size())), time, time + 600.0, time + 3600.0);
+        }
+
+        return state;
+    }
+
+    @Benchmark
+    public byte[] serializeObjectMapper() throws IOException {
+        return mapper.writeValueAsBytes(state.toState(ids));
+    }
+
+    @Benchmark
+    public int serializeStreaming() throws IOException {
+        return writer.write(state, null);
+    }
+}
@@ -0,0 +1,208 @@
+package org.irtx.matsim_fleetpy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PopulationFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Generates random requests with link-based origin and destination weights.
+ * Links are drawn by binary search over the cumulative weights. If the
+ * destination is closer than the minimum distance, both the origin and the
+ * destination are drawn again, so the pairs follow the product of the weights
+ * restricted to the feasible pairs.
+ *
+ * Requests are generated in chunks, each with its own random stream that is
+ * split from the seed. Hence, the output only depends on the seed and not on
+ * the number of threads.
+ */
+public class DemandGenerator {
+	static public final int CHUNK_SIZE = 10000;
+
+	private final List<Id<Link>> linkIds;
+	private final double[] x;
+	private final double[] y;
+
+	private final double[] originCDF;
+	private final double[] destinationCDF;
+
+	private final double minimumDistance;
+
+	public DemandGenerator(Network network, double minimumDistance) {
+		this.minimumDistance = minimumDistance;
+
+		linkIds = new ArrayList<>(network.getLinks().keySet());
+		Collections.sort(linkIds);
+
+		int links = linkIds.size();
+		x = new double[links];
+		y = new double[links];
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+
+		for (int k = 0; k < links; k++) {
+			Link link = network.getLinks().get(linkIds.get(k));
+			x[k] = link.getCoord().getX();
+			y[k] = link.getCoord().getY();
+
+			minX = Math.min(minX, x[k]);
+			minY = Math.min(minY, y[k]);
+			maxX = Math.max(maxX, x[k]);
+			maxY = Math.max(maxY, y[k]);
+		}
+
+		// the weights only depend on the network, not on the seed
+		Random networkRandom = new Random(0);
+
+		originCDF = new double[links];
+		destinationCDF = new double[links];
+
+		double originTotal = 0.0;
+		double destinationTotal = 0.0;
+
+		for (int k = 0; k < links; k++) {
+			originTotal += networkRandom.nextDouble();
+			destinationTotal += networkRandom.nextDouble();
+
+			originCDF[k] = originTotal;
+			destinationCDF[k] = destinationTotal;
+		}
+
+		// otherwise, no pair is ever accepted
+		Preconditions.checkArgument(Math.hypot(maxX - minX, maxY - minY) >= minimumDistance,
+				"The network is too small for a minimum distance of " + minimumDistance);
+	}
+
+	/**
+	 * Generates the requests and passes the persons to the consumer in the order of
+	 * their index.
+	 */
+	public void generate(PopulationFactory factory, int requests, long seed, int threads,
+			Consumer<Person> consumer) {
+		SplittableRandom seedRandom = new SplittableRandom(seed);
+		int chunks = (requests + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+		if (threads <= 1) {
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				generateChunk(factory, chunk, requests, seedRandom.split()).forEach(consumer);
+			}
+
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+			// a bounded window of chunks keeps the memory independent of the demand
+			Deque<Future<List<Person>>> window = new ArrayDeque<>();
+
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				int index = chunk;
+				SplittableRandom random = seedRandom.split();
+				window.add(executor.submit(() -> generateChunk(factory, index, requests, random)));
+
+				if (window.size() >= 2 * threads) {
+					window.poll().get().forEach(consumer);
+				}
+			}
+
+			while (!window.isEmpty()) {
+				window.poll().get().forEach(consumer);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<Person> generateChunk(PopulationFactory factory, int chunk, int requests, SplittableRandom random) {
+		int start = chunk * CHUNK_SIZE;
+		int end = Math.min(requests, start + CHUNK_SIZE);
+
+		List<Person> persons = new ArrayList<>(end - start);
+
+		double originTotal = originCDF[originCDF.length - 1];
+		double destinationTotal = destinationCDF[destinationCDF.length - 1];
+
+		for (int i = start; i < end; i++) {
+			int originIndex;
+			int destinationIndex;
+
+			do {
+				originIndex = sample(originCDF, random.nextDouble() * originTotal);
+				destinationIndex = sample(destinationCDF, random.nextDouble() * destinationTotal);
+			} while (distance(originIndex, destinationIndex) < minimumDistance);
+
+			double departureTime1 = random.nextGaussian(8.0 * 3600.0, 2.0 * 3600.0);
+			double departureTime2 = random.nextGaussian(17.0 * 3600.0, 2.0 * 3600.0);
+			double departureTime = random.nextBoolean() ? departureTime1 : departureTime2;
+
+			Person person = factory.createPerson(Id.createPersonId("request_" + i));
+			persons.add(person);
+
+			Plan plan = factory.createPlan();
+			person.addPlan(plan);
+
+			Activity originActivity = factory.createActivityFromLinkId("generic", linkIds.get(originIndex));
+			originActivity.setEndTime(departureTime);
+			plan.addActivity(originActivity);
+
+			Leg leg = factory.createLeg("drt");
+			plan.addLeg(leg);
+
+			Activity destinationActivity = factory.createActivityFromLinkId("generic", linkIds.get(destinationIndex));
+			plan.addActivity(destinationActivity);
+		}
+
+		return persons;
+	}
+
+	private double distance(int i, int j) {
+		double dx = x[i] - x[j];
+		double dy = y[i] - y[j];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Smallest index whose cumulative weight exceeds the value.
+	 */
+	static private int sample(double[] cdf, double value) {
+		int lower = 0;
+		int upper = cdf.length - 1;
+
+		while (lower < upper) {
+			int k = (lower + upper) >>> 1;
+
+			if (cdf[k] > value) {
+				upper = k;
+			} else {
+				lower = k + 1;
+			}
+		}
+
+		return lower;
+	}
+}
@@ -1,10 +1,25 @@
 package org.irtx.matsim_fleetpy;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.irtx.matsim_fleetpy.bridge.FleetPyModule;
 import org.irtx.matsim_fleetpy.bridge.FleetPyQSimModule;
+import org.irtx.matsim_fleetpy.bridge.FleetPyServerModule;
+import org.irtx.matsim_fleetpy.bridge.communication.Dispatcher;
+import org.irtx.matsim_fleetpy.bridge.communication.InProcessTransport;
+import org.irtx.matsim_fleetpy.bridge.communication.ReplayTransport;
+import org.irtx.matsim_fleetpy.bridge.communication.Transport;
+import org.irtx.matsim_fleetpy.bridge.communication.ZmqTransport;
 import org.matsim.api.core.v01.IdSet;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Network;
@@ -35,11 +50,14 @@ import org.matsim.core.config.groups.QSimConfigGroup.StarttimeInterpretation;
 import org.matsim.core.config.groups.ReplanningConfigGroup.StrategySettings;
 import org.matsim.core.config.groups.ScoringConfigGroup.ActivityParams;
 import org.matsim.core.config.groups.ScoringConfigGroup.ModeParams;
+import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
 import org.matsim.core.controler.PrepareForSim;
 import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
 import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
 import org.matsim.core.replanning.strategies.DefaultPlanStrategiesModule.DefaultSelector;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.scenario.ScenarioUtils;
@@ -51,10 +69,11 @@ import com.google.inject.Provider;
 
 public class RunSimulation {
 	static public void main(String[] args) throws ConfigurationException, JsonGenerationException, JsonMappingException,
-			IOException, InterruptedException {
+			IOException, InterruptedException, ReflectiveOperationException {
 		CommandLine cmd = new CommandLine.Builder(args) //
 				.requireOptions("demand-path", "fleet-path", "network-path", "output-path") //
-				.allowOptions("threads", "remote-port", "update-demand") //
+				.allowOptions("threads", "remote-port", "update-demand", "decision-latency", "record-trace",
+						"replay-directory", "ipc-path", "dispatcher-class") //
 				.build();
 
 		Config config = ConfigUtils.createConfig(new MultiModeDrtConfigGroup(),
@@ -83,9 +102,6 @@ public class RunSimulation {
 		config.global().setNumberOfThreads(threads);
 		config.qsim().setNumberOfThreads(threads);
 
-		ModeParams drtParams = new ModeParams("drt");
-		config.scoring().addModeParams(drtParams);
-
 		ActivityParams activityParams = new ActivityParams("generic");
 		activityParams.setScoringThisActivityAtAll(false);
 		config.scoring().addActivityParams(activityParams);
@@ -115,6 +131,10 @@ public class RunSimulation {
 		constraints.setMaxTravelTimeAlpha(1.5);
 		constraints.setMaxTravelTimeBeta(300.0);
 
+		for (DrtConfigGroup modeConfig : MultiModeDrtConfigGroup.get(config).getModalElements()) {
+			config.scoring().addModeParams(new ModeParams(modeConfig.getMode()));
+		}
+
 		DrtConfigs.adjustMultiModeDrtConfig(MultiModeDrtConfigGroup.get(config), config.scoring(), config.routing());
 
 		Scenario scenario = ScenarioUtils.createScenario(config);
@@ -131,30 +151,61 @@ public class RunSimulation {
 		controller.addOverridingModule(new MultiModeDrtModule());
 		controller.configureQSimComponents(DvrpQSimComponents.activateAllModes(MultiModeDrtConfigGroup.get(config)));
 
-		if (cmd.hasOption("remote-port")) {
-			int remotePort = Integer.parseInt(cmd.getOptionStrict("remote-port"));
-			controller.addOverridingModule(new FleetPyModule("drt", remotePort));
-			controller.addOverridingQSimModule(new FleetPyQSimModule("drt"));
-		}
+		if (cmd.hasOption("remote-port") || cmd.hasOption("replay-directory") || cmd.hasOption("ipc-path")
+				|| cmd.hasOption("dispatcher-class")) {
+			double decisionLatency = cmd.getOption("decision-latency").map(Double::parseDouble).orElse(0.0);
+			boolean recordTrace = cmd.getOption("record-trace").map(Boolean::parseBoolean).orElse(false);
+			String dispatcherClass = cmd.getOption("dispatcher-class").orElse(null);
+
+			// one transport serves the dispatchers of all modes
+			Transport transport;
+			if (dispatcherClass != null) {
+				transport = new InProcessTransport();
+			} else if (cmd.hasOption("replay-directory")) {
+				transport = new ReplayTransport(cmd.getOptionStrict("replay-directory"));
+			} else if (cmd.hasOption("ipc-path")) {
+				transport = new ZmqTransport("ipc://" + cmd.getOptionStrict("ipc-path"));
+			} else {
+				transport = new ZmqTransport("tcp://*:" + cmd.getOptionStrict("remote-port"));
+			}
+
+			controller.addOverridingModule(new FleetPyServerModule(transport));
 
-		controller.addOverridingModule(new AbstractDvrpModeModule("drt") {
-			@Override
-			public void install() {
-				bindModal(TravelTime.class).toInstance(new QSimFreeSpeedTravelTime(config.qsim()));
+			for (DrtConfigGroup modeConfig : MultiModeDrtConfigGroup.get(config).getModalElements()) {
+				// every mode gets its own dispatcher instance
+				Dispatcher dispatcher = null;
+				if (dispatcherClass != null) {
+					dispatcher = (Dispatcher) Class.forName(dispatcherClass).getDeclaredConstructor().newInstance();
+				}
+
+				controller.addOverridingModule(
+						new FleetPyModule(modeConfig.getMode(), decisionLatency, recordTrace, dispatcher));
+				controller.addOverridingQSimModule(new FleetPyQSimModule(modeConfig.getMode()));
 			}
-		});
+		}
+
+		for (DrtConfigGroup modeConfig : MultiModeDrtConfigGroup.get(config).getModalElements()) {
+			controller.addOverridingModule(new AbstractDvrpModeModule(modeConfig.getMode()) {
+				@Override
+				public void install() {
+					bindModal(TravelTime.class).toInstance(new QSimFreeSpeedTravelTime(config.qsim()));
+				}
+			});
+		}
 
 		boolean updateDemand = cmd.getOption("update-demand").map(Boolean::parseBoolean).orElse(false);
 		if (updateDemand) {
-			Updater updater = new Updater(scenario.getPopulation(), scenario.getNetwork());
+			List<String> modes = new ArrayList<>();
+			for (DrtConfigGroup modeConfig : MultiModeDrtConfigGroup.get(config).getModalElements()) {
+				modes.add(modeConfig.getMode());
+			}
+
+			Updater updater = new Updater(scenario.getPopulation(), scenario.getNetwork(), modes);
 
-			controller.addOverridingModule(new AbstractDvrpModeModule("drt") {
+			// the population is swapped once for all modes
+			controller.addOverridingModule(new AbstractModule() {
 				@Override
 				public void install() {
-					bindModal(FleetSpecification.class).toProvider(modalProvider(getter -> {
-						return updater.fleet;
-					}));
-
 					addControlerListenerBinding().toProvider(new Provider<UpdateListener>() {
 						@Inject
 						PrepareForSim prepare;
@@ -166,12 +217,23 @@ public class RunSimulation {
 					});
 				}
 			});
+
+			for (String mode : modes) {
+				controller.addOverridingModule(new AbstractDvrpModeModule(mode) {
+					@Override
+					public void install() {
+						bindModal(FleetSpecification.class).toProvider(modalProvider(getter -> {
+							return updater.getFleet(mode);
+						}));
+					}
+				});
+			}
 		}
 
 		controller.run();
 	}
 
-	static private class UpdateListener implements IterationEndsListener {
+	static private class UpdateListener implements IterationEndsListener, ShutdownListener {
 		private final Updater updater;
 		private final PrepareForSim prepare;
 
@@ -182,33 +244,109 @@ public class RunSimulation {
 
 		@Override
 		public void notifyIterationEnds(IterationEndsEvent event) {
-			updater.update();
-			prepare.run();
+			if (!event.isLastIteration()) {
+				// blocks the controller, but the generation has already happened meanwhile
+				updater.swap();
+				prepare.run();
+			}
+		}
+
+		@Override
+		public void notifyShutdown(ShutdownEvent event) {
+			updater.close();
 		}
 	}
 
+	/**
+	 * Generates the demand and fleet of the next iteration in the background
+	 * while the current one is simulated. At the end of an iteration, the ready
+	 * buffer is swapped into the population. Only the generation is moved off the
+	 * controller thread: removing the old persons and routing the new ones in
+	 * PrepareForSim change the scenario and still happen between the iterations.
+	 * Every DRT mode gets its own fleet.
+	 */
 	static private class Updater {
 		private final Random random = new Random(0);
 
 		private final Population population;
 		private final Network network;
-		private FleetSpecification fleet;
+		private final DemandGenerator demandGenerator;
+		private final List<String> modes;
+		private Map<String, FleetSpecification> fleets;
+
+		private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "demand-updater");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		private Future<Buffer> next;
+
+		private record Buffer(List<Person> persons, Map<String, FleetSpecification> fleets) {
+		}
 
-		public Updater(Population population, Network network) {
+		public Updater(Population population, Network network, List<String> modes) {
 			this.population = population;
 			this.network = network;
+			this.modes = modes;
+			this.demandGenerator = new DemandGenerator(network, 2);
 
-			update();
+			long demandSeed = random.nextLong();
+			long[] fleetSeeds = drawFleetSeeds();
+			next = CompletableFuture.completedFuture(generate(demandSeed, fleetSeeds));
+			swap();
 		}
 
-		public void update() {
+		private long[] drawFleetSeeds() {
+			long[] seeds = new long[modes.size()];
+
+			for (int k = 0; k < seeds.length; k++) {
+				seeds[k] = random.nextLong();
+			}
+
+			return seeds;
+		}
+
+		private Buffer generate(long demandSeed, long[] fleetSeeds) {
+			List<Person> persons = new ArrayList<>(1500);
+			demandGenerator.generate(population.getFactory(), 1500, demandSeed, 1, persons::add);
+
+			Map<String, FleetSpecification> fleets = new HashMap<>();
+			for (int k = 0; k < modes.size(); k++) {
+				fleets.put(modes.get(k), RunCreateFleet.apply(network, new Random(fleetSeeds[k]), 40, 2));
+			}
+
+			return new Buffer(persons, fleets);
+		}
+
+		public FleetSpecification getFleet(String mode) {
+			return fleets.get(mode);
+		}
+
+		public void swap() {
+			Buffer buffer;
+
+			try {
+				buffer = next.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+
 			IdSet<Person> all = new IdSet<>(Person.class);
 			all.addAll(population.getPersons().keySet());
 			all.forEach(population::removePerson);
 
-			RunCreateDemand.apply(population, network, random, 1500, 2);
+			buffer.persons().forEach(population::addPerson);
+			fleets = buffer.fleets();
+
+			// the seeds are drawn here so that the result does not depend on the timing
+			long demandSeed = random.nextLong();
+			long[] fleetSeeds = drawFleetSeeds();
+			next = executor.submit(() -> generate(demandSeed, fleetSeeds));
+		}
 
-			fleet = RunCreateFleet.apply(network, random, 40, 2);
+		public void close() {
+			executor.shutdownNow();
 		}
 	}
 }
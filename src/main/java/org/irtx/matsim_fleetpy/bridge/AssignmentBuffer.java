@@ -0,0 +1,134 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.irtx.matsim_fleetpy.bridge.communication.AssignmentHandler;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.optimizer.Request;
+
+import com.google.common.base.Verify;
+
+/**
+ * Collects the assignment while it is read. The stops are pooled between steps,
+ * so reading an assignment does not create objects once the pool is large
+ * enough.
+ */
+class AssignmentBuffer implements AssignmentHandler {
+    static class Stop {
+        Link link;
+        final List<Id<Request>> pickup = new ArrayList<>();
+        final List<Id<Request>> dropoff = new ArrayList<>();
+        final List<Link> route = new ArrayList<>();
+        boolean hasRoute;
+
+        double earliestStartTime;
+        double stopDuration;
+        String id;
+
+        boolean hasRequests() {
+            return pickup.size() > 0 || dropoff.size() > 0;
+        }
+    }
+
+    private final List<DvrpVehicle> vehicles = new ArrayList<>();
+    private int[] firstStops = new int[1]; // per vehicle, with the end of the last one
+
+    private final List<Stop> stops = new ArrayList<>();
+    private int stopCount = 0;
+
+    private final List<Id<Request>> rejections = new ArrayList<>();
+    private double waitFor = 0.0;
+
+    @Override
+    public void startAssignment() {
+        vehicles.clear();
+        stopCount = 0;
+        rejections.clear();
+        waitFor = 0.0;
+    }
+
+    @Override
+    public void vehicle(DvrpVehicle vehicle) {
+        if (vehicles.size() + 1 >= firstStops.length) {
+            int[] extended = new int[2 * firstStops.length];
+            System.arraycopy(firstStops, 0, extended, 0, firstStops.length);
+            firstStops = extended;
+        }
+
+        firstStops[vehicles.size()] = stopCount;
+        vehicles.add(vehicle);
+        firstStops[vehicles.size()] = stopCount;
+    }
+
+    @Override
+    public void stop(Link link, List<String> pickup, List<String> dropoff, List<Link> route,
+            double earliestStartTime, double stopDuration, String id) {
+        Verify.verify(!vehicles.isEmpty(), "Stop before the first vehicle");
+        Verify.verifyNotNull(link, "Stop without link");
+
+        if (stopCount == stops.size()) {
+            stops.add(new Stop());
+        }
+
+        Stop stop = stops.get(stopCount++);
+        stop.link = link;
+        stop.earliestStartTime = earliestStartTime;
+        stop.stopDuration = stopDuration;
+        stop.id = id;
+
+        stop.pickup.clear();
+        for (String requestId : pickup) {
+            stop.pickup.add(Id.create(requestId, Request.class));
+        }
+
+        stop.dropoff.clear();
+        for (String requestId : dropoff) {
+            stop.dropoff.add(Id.create(requestId, Request.class));
+        }
+
+        stop.route.clear();
+        stop.hasRoute = route != null;
+        if (route != null) {
+            stop.route.addAll(route);
+        }
+
+        firstStops[vehicles.size()] = stopCount;
+    }
+
+    @Override
+    public void rejection(String requestId) {
+        rejections.add(Id.create(requestId, Request.class));
+    }
+
+    @Override
+    public void waitFor(double waitFor) {
+        this.waitFor = waitFor;
+    }
+
+    int size() {
+        return vehicles.size();
+    }
+
+    DvrpVehicle getVehicle(int v) {
+        return vehicles.get(v);
+    }
+
+    int getStopCount(int v) {
+        return firstStops[v + 1] - firstStops[v];
+    }
+
+    Stop getStop(int v, int k) {
+        return stops.get(firstStops[v] + k);
+    }
+
+    List<Id<Request>> getRejections() {
+        return rejections;
+    }
+
+    double getWaitFor() {
+        return waitFor;
+    }
+}
@@ -0,0 +1,191 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+
+import jdk.jfr.EventType;
+
+/**
+ * Timing of the phases of the exchange with the dispatcher of one mode. Each
+ * phase is emitted as a JFR event while a recording enables it, and aggregated
+ * per iteration into a CSV file in the output directory, together with a
+ * histogram of the durations in buckets of powers of two microseconds. All
+ * phases are recorded on the simulation thread.
+ */
+public class BridgeMetrics implements IterationEndsListener {
+    public enum Phase {
+        STATE_BUILD, SERIALIZE, SEND, OVERLAP, WAIT, DESERIALIZE, QUERY, IMPLEMENT
+    }
+
+    static private final int BUCKETS = 40;
+
+    static private final EventType EVENT_TYPE = EventType.getEventType(BridgePhaseEvent.class);
+
+    private final String mode;
+    private final String outputPath;
+    private final String histogramPath;
+    private boolean writeHeader = true;
+
+    private final Series[] series = new Series[Phase.values().length];
+
+    public BridgeMetrics(String mode, String outputPath, String histogramPath) {
+        this.mode = mode;
+        this.outputPath = outputPath;
+        this.histogramPath = histogramPath;
+
+        for (int k = 0; k < series.length; k++) {
+            series[k] = new Series();
+        }
+    }
+
+    static private class Series {
+        long[] durations = new long[1024];
+        int count = 0;
+        long bytes = 0;
+
+        void add(long duration, int messageBytes) {
+            if (count == durations.length) {
+                durations = Arrays.copyOf(durations, 2 * count);
+            }
+
+            durations[count++] = duration;
+            bytes += messageBytes;
+        }
+    }
+
+    public Span start(Phase phase) {
+        return new Span(phase);
+    }
+
+    public class Span {
+        private final Phase phase;
+        private final long startTime;
+        private final BridgePhaseEvent event; // null while no recording enables the event
+
+        private Span(Phase phase) {
+            this.phase = phase;
+            this.event = EVENT_TYPE.isEnabled() ? new BridgePhaseEvent() : null;
+
+            if (event != null) {
+                event.begin();
+            }
+
+            this.startTime = System.nanoTime();
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public void end() {
+            end(0);
+        }
+
+        public void end(int bytes) {
+            series[phase.ordinal()].add(System.nanoTime() - startTime, bytes);
+
+            if (event == null) {
+                return;
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.mode = mode;
+                event.phase = phase.name();
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void notifyIterationEnds(IterationEndsEvent event) {
+        try (BufferedWriter writer = openWriter(outputPath);
+                BufferedWriter histogramWriter = openWriter(histogramPath)) {
+            if (writeHeader) {
+                writer.write(String.join(";", "iteration", "mode", "phase", "count", "total_s", "mean_ms", "p50_ms",
+                        "p90_ms", "p99_ms", "max_ms", "total_bytes", "mean_bytes") + "\n");
+                histogramWriter.write(String.join(";", "iteration", "mode", "phase", "upper_ms", "count") + "\n");
+                writeHeader = false;
+            }
+
+            for (Phase phase : Phase.values()) {
+                Series item = series[phase.ordinal()];
+
+                if (item.count == 0) {
+                    continue;
+                }
+
+                long[] sorted = Arrays.copyOf(item.durations, item.count);
+                Arrays.sort(sorted);
+
+                long total = 0;
+                for (long duration : sorted) {
+                    total += duration;
+                }
+
+                writer.write(String.join(";", //
+                        String.valueOf(event.getIteration()), //
+                        mode, //
+                        phase.name(), //
+                        String.valueOf(item.count), //
+                        String.valueOf(total * 1e-9), //
+                        String.valueOf(total * 1e-6 / item.count), //
+                        String.valueOf(percentile(sorted, 0.5) * 1e-6), //
+                        String.valueOf(percentile(sorted, 0.9) * 1e-6), //
+                        String.valueOf(percentile(sorted, 0.99) * 1e-6), //
+                        String.valueOf(sorted[sorted.length - 1] * 1e-6), //
+                        String.valueOf(item.bytes), //
+                        String.valueOf((double) item.bytes / item.count)) + "\n");
+
+                long[] buckets = new long[BUCKETS];
+                for (long duration : sorted) {
+                    buckets[bucket(duration)]++;
+                }
+
+                for (int k = 0; k < BUCKETS; k++) {
+                    if (buckets[k] > 0) {
+                        histogramWriter.write(String.join(";", //
+                                String.valueOf(event.getIteration()), //
+                                mode, //
+                                phase.name(), //
+                                String.valueOf((1L << k) * 1e-3), //
+                                String.valueOf(buckets[k])) + "\n");
+                    }
+                }
+
+                item.count = 0;
+                item.bytes = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BufferedWriter openWriter(String path) throws IOException {
+        return Files.newBufferedWriter(Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                writeHeader ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Bucket k counts the durations below 2^k microseconds that are not in a lower
+     * bucket.
+     */
+    static private int bucket(long duration) {
+        long micros = duration / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    static private long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,24 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.irtx.matsim_fleetpy.BridgePhase")
+@Label("Bridge Phase")
+@Category("FleetPy")
+@Description("One phase of the exchange between MATSim and the remote dispatcher")
+public class BridgePhaseEvent extends Event {
+    @Label("Mode")
+    String mode;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Message Size")
+    @DataAmount
+    int bytes;
+}
@@ -0,0 +1,209 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.path.OneToManyPathSearch;
+import org.matsim.contrib.dvrp.path.OneToManyPathSearch.PathData;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.speedy.SpeedyGraphBuilder;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Routing for the bridge that can be used from several threads at once. Each
+ * thread obtains its own path calculator.
+ * 
+ * Paths are cached by origin, destination and departure time bin. Only the
+ * sequence of links is reused, the travel times are always calculated for the
+ * actual departure time. The cache is cleared at the start of each iteration
+ * when the travel times have been updated.
+ * 
+ * For many destinations, one search tree per origin is grown instead, which is
+ * not cached.
+ */
+public class BridgeRouter implements IterationStartsListener, ShutdownListener {
+    static public final int DEFAULT_CACHE_SIZE = 100000;
+    static public final double DEFAULT_CACHE_BIN_SIZE = 900.0;
+
+    private final Logger logger = LogManager.getLogger(BridgeRouter.class);
+
+    private final TravelTime travelTime;
+    private final ThreadLocal<LeastCostPathCalculator> routers;
+    private final ThreadLocal<OneToManyPathSearch> pathSearches;
+    private final ExecutorService executor;
+
+    private final double cacheBinSize;
+    private final Map<PathKey, Path> cache;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    private record PathKey(int fromLink, int toLink, int bin) {
+    }
+
+    public BridgeRouter(Network network, TravelTime travelTime, int threads, int cacheSize, double cacheBinSize) {
+        this.travelTime = travelTime;
+        this.cacheBinSize = cacheBinSize;
+
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PathKey, Path> eldest) {
+                return size() > cacheSize;
+            }
+        });
+
+        SpeedyALTFactory factory = new SpeedyALTFactory();
+        TravelDisutility travelDisutility = new OnlyTimeDependentTravelDisutility(travelTime);
+
+        this.routers = ThreadLocal.withInitial(() -> {
+            synchronized (factory) {
+                return factory.createPathCalculator(network, travelDisutility, travelTime);
+            }
+        });
+
+        SpeedyGraph graph = SpeedyGraphBuilder.build(network);
+        this.pathSearches = ThreadLocal.withInitial(() -> {
+            return OneToManyPathSearch.createSearch(graph, travelTime, travelDisutility, true);
+        });
+
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder() //
+                .setDaemon(true) //
+                .setNameFormat("fleetpy-router-%d") //
+                .build());
+    }
+
+    public TravelTime getTravelTime() {
+        return travelTime;
+    }
+
+    public VrpPathWithTravelData calcPath(Link fromLink, Link toLink, double departureTime) {
+        return VrpPaths.createPath(fromLink, toLink, departureTime, findPath(fromLink, toLink, departureTime),
+                travelTime);
+    }
+
+    /**
+     * Calculates the paths from one link to all given links with one search tree.
+     * The travel times follow the conventions of calcPath, the paths only contain
+     * the links between the origin and the destination.
+     */
+    public PathData[] calcPathTree(Link fromLink, List<Link> toLinks, double departureTime) {
+        return pathSearches.get().calcPathDataArray(fromLink, toLinks, departureTime, true);
+    }
+
+    /**
+     * Calculates the paths from all given links to one link with one backward
+     * search tree, which is referenced to the arrival time.
+     */
+    public PathData[] calcBackwardPathTree(Link toLink, List<Link> fromLinks, double arrivalTime) {
+        return pathSearches.get().calcPathDataArray(toLink, fromLinks, arrivalTime, false);
+    }
+
+    public VrpPathWithTravelData calcPathForDiversion(LinkTimePair diversionPoint, Link toLink) {
+        return calcPath(diversionPoint.link, toLink, diversionPoint.time);
+    }
+
+    private Path findPath(Link fromLink, Link toLink, double departureTime) {
+        if (fromLink == toLink) {
+            return null;
+        }
+
+        int bin = (int) Math.floor(departureTime / cacheBinSize);
+        PathKey key = new PathKey(fromLink.getId().index(), toLink.getId().index(), bin);
+
+        Path path = cache.get(key);
+
+        if (path == null) {
+            cacheMisses.incrementAndGet();
+
+            // routed for the start of the bin, so the result does not depend on which
+            // thread fills the cache first; as in VrpPaths, one second is needed to move
+            // over the first node
+            path = routers.get().calcLeastCostPath(fromLink.getToNode(), toLink.getFromNode(),
+                    bin * cacheBinSize + 1, null, null);
+            cache.put(key, path);
+        } else {
+            cacheHits.incrementAndGet();
+        }
+
+        return path;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public void notifyIterationStarts(IterationStartsEvent event) {
+        long hits = cacheHits.getAndSet(0);
+        long misses = cacheMisses.getAndSet(0);
+
+        if (hits + misses > 0) {
+            logger.info(String.format("Path cache: %d hits, %d misses (%.1f%% hit rate)", hits, misses,
+                    100.0 * hits / (hits + misses)));
+        }
+
+        // travel times have been updated
+        cache.clear();
+    }
+
+    /**
+     * Runs the tasks on the routing threads and returns their results in order.
+     */
+    public <T> List<T> runAll(List<Callable<T>> tasks) {
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        executor.shutdownNow();
+    }
+}
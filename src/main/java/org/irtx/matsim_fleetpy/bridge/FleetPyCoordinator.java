@@ -0,0 +1,65 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.irtx.matsim_fleetpy.bridge.communication.CommunicationServer;
+import org.irtx.matsim_fleetpy.bridge.communication.Transport;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationStartsListener;
+
+/**
+ * Batches the exchange with the dispatchers of all modes: The states of all
+ * modes that are due in a time step are sent at once, and the assignments are
+ * then collected in the order in which they arrive.
+ */
+public class FleetPyCoordinator implements IterationStartsListener {
+    private final CommunicationServer server;
+
+    private final List<FleetPyOptimizer> optimizers = new LinkedList<>();
+    private double exchangeTime = Double.NaN;
+
+    public FleetPyCoordinator(CommunicationServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void notifyIterationStarts(IterationStartsEvent event) {
+        optimizers.clear();
+        exchangeTime = Double.NaN;
+    }
+
+    public void register(FleetPyOptimizer optimizer) {
+        optimizers.add(optimizer);
+    }
+
+    public void exchange(double now) {
+        if (now == exchangeTime) {
+            return; // already performed by the optimizer of another mode
+        }
+
+        exchangeTime = now;
+
+        Map<String, FleetPyOptimizer> pending = new HashMap<>();
+        for (FleetPyOptimizer optimizer : optimizers) {
+            if (optimizer.isDue(now)) {
+                optimizer.sendState(now);
+
+                // in-process dispatchers have answered already
+                if (!optimizer.pollAssignment()) {
+                    pending.put(optimizer.getMode(), optimizer);
+                }
+            }
+        }
+
+        while (pending.size() > 0) {
+            Transport.Message message = server.receive(pending.keySet());
+
+            if (pending.get(message.mode()).handleResponse(message.payload())) {
+                pending.remove(message.mode());
+            }
+        }
+    }
+}
@@ -1,33 +1,144 @@
 package org.irtx.matsim_fleetpy.bridge;
 
 import org.irtx.matsim_fleetpy.bridge.communication.CommunicationManager;
+import org.irtx.matsim_fleetpy.bridge.communication.CommunicationServer;
+import org.irtx.matsim_fleetpy.bridge.communication.Dispatcher;
+import org.irtx.matsim_fleetpy.bridge.communication.TraceRecorder;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.InsertionQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.MatchQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NearestVehiclesQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NetworkQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.RouteQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.TravelTimeQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.ZoneQuery;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.common.zones.ZoneSystem;
+import org.matsim.contrib.common.zones.ZoneSystemUtils;
+import org.matsim.contrib.common.zones.systems.grid.square.SquareGridZoneSystemParams;
+import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
 import org.matsim.contrib.dvrp.run.AbstractDvrpModeModule;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
 import org.matsim.core.router.util.TravelTime;
 
 import com.google.inject.Singleton;
 
 public class FleetPyModule extends AbstractDvrpModeModule {
-    private final int port;
+    private final double latency;
+    private final boolean recordTrace;
+    private final Dispatcher dispatcher; // null if the dispatcher is remote
 
-    public FleetPyModule(String mode, int port) {
+    public FleetPyModule(String mode, double latency, boolean recordTrace, Dispatcher dispatcher) {
         super(mode);
-        this.port = port;
+        this.latency = latency;
+        this.recordTrace = recordTrace;
+        this.dispatcher = dispatcher;
     }
 
     @Override
     public void install() {
         bindModal(CommunicationManager.class).toProvider(modalProvider(getter -> {
-            TravelTimeManager travelTimeManager = getter.getModal(TravelTimeManager.class);
-            return new CommunicationManager(port, travelTimeManager);
+            CommunicationServer server = getter.get(CommunicationServer.class);
+            BridgeMetrics metrics = getter.getModal(BridgeMetrics.class);
+
+            TraceRecorder recorder = null;
+            if (recordTrace) {
+                recorder = new TraceRecorder(getMode(), getter.get(OutputDirectoryHierarchy.class));
+            }
+
+            CommunicationManager manager = new CommunicationManager(getMode(), server, latency, metrics, recorder,
+                    dispatcher);
+
+            manager.addQueryHandler(TravelTimeQuery.class, getter.getModal(TravelTimeManager.class));
+            manager.addQueryHandler(RouteQuery.class, getter.getModal(RouteManager.class));
+            manager.addQueryHandler(ZoneQuery.class, getter.getModal(ZoneManager.class));
+            manager.addQueryHandler(NetworkQuery.class, getter.getModal(NetworkManager.class));
+            manager.addQueryHandler(NearestVehiclesQuery.class, getter.getModal(VehicleIndex.class));
+            manager.addQueryHandler(MatchQuery.class, getter.getModal(MatchManager.class));
+            manager.addQueryHandler(InsertionQuery.class, getter.getModal(InsertionManager.class));
+
+            return manager;
         })).in(Singleton.class);
 
         bindModal(TravelTimeManager.class).toProvider(modalProvider(getter -> {
             Network network = getter.getModal(Network.class);
             TravelTime travelTime = getter.getModal(TravelTime.class);
             return new TravelTimeManager(network, travelTime);
-        }));
+        })).in(Singleton.class);
+
+        bindModal(BridgeRouter.class).toProvider(modalProvider(getter -> {
+            Network network = getter.getModal(Network.class);
+            TravelTime travelTime = getter.getModal(TravelTime.class);
+            int threads = getter.get(Config.class).global().getNumberOfThreads();
+            return new BridgeRouter(network, travelTime, Math.max(1, threads), BridgeRouter.DEFAULT_CACHE_SIZE,
+                    BridgeRouter.DEFAULT_CACHE_BIN_SIZE);
+        })).in(Singleton.class);
+
+        bindModal(RouteManager.class).toProvider(modalProvider(getter -> {
+            return new RouteManager(getter.getModal(BridgeRouter.class));
+        })).in(Singleton.class);
+
+        bindModal(ZoneManager.class).toProvider(modalProvider(getter -> {
+            Network network = getter.getModal(Network.class);
+            TravelTimeMatrix travelTimeMatrix = getter.getModal(TravelTimeMatrix.class);
+
+            Config config = getter.get(Config.class);
+            DvrpConfigGroup dvrpConfig = DvrpConfigGroup.get(config);
+
+            // DVRP creates the zone system of the matrix inside its provider without binding
+            // it. It is created here by the same deterministic call on the same inputs: the
+            // modal network is the network of the modal matrix, both for filtered and for
+            // global routing networks, with the same parameters, CRS and filter, so the
+            // zones and their identifiers are the same
+            ZoneSystem zoneSystem = ZoneSystemUtils.createZoneSystem(config.getContext(), network,
+                    dvrpConfig.getTravelTimeMatrixParams().getZoneSystemParams(),
+                    config.global().getCoordinateSystem(), zone -> true);
+
+            return new ZoneManager(network, travelTimeMatrix, zoneSystem, findCellSize(dvrpConfig));
+        })).in(Singleton.class);
+
+        bindModal(NetworkManager.class).toProvider(modalProvider(getter -> {
+            return new NetworkManager(getter.getModal(Network.class));
+        })).in(Singleton.class);
+
+        bindModal(MatchManager.class).toProvider(modalProvider(getter -> {
+            return new MatchManager(getter.getModal(BridgeRouter.class));
+        })).in(Singleton.class);
+
+        bindModal(InsertionManager.class).toProvider(modalProvider(getter -> {
+            return new InsertionManager(getter.getModal(BridgeRouter.class));
+        })).in(Singleton.class);
+
+        bindModal(VehicleIndex.class).toProvider(modalProvider(getter -> {
+            return new VehicleIndex(VehicleIndex.DEFAULT_CELL_SIZE);
+        })).in(Singleton.class);
+
+        bindModal(BridgeMetrics.class).toProvider(modalProvider(getter -> {
+            OutputDirectoryHierarchy outputHierarchy = getter.get(OutputDirectoryHierarchy.class);
+            String outputPath = outputHierarchy.getOutputFilename("fleetpy_timing_" + getMode() + ".csv");
+            String histogramPath = outputHierarchy
+                    .getOutputFilename("fleetpy_timing_histogram_" + getMode() + ".csv");
+            return new BridgeMetrics(getMode(), outputPath, histogramPath);
+        })).in(Singleton.class);
 
         addControlerListenerBinding().to(modalKey(CommunicationManager.class));
+        addControlerListenerBinding().to(modalKey(TravelTimeManager.class));
+        addControlerListenerBinding().to(modalKey(BridgeRouter.class));
+        addControlerListenerBinding().to(modalKey(VehicleIndex.class));
+        addControlerListenerBinding().to(modalKey(BridgeMetrics.class));
+    }
+
+    static private double findCellSize(DvrpConfigGroup dvrpConfig) {
+        for (var parameterSets : dvrpConfig.getTravelTimeMatrixParams().getParameterSets().values()) {
+            for (ConfigGroup parameterSet : parameterSets) {
+                if (parameterSet instanceof SquareGridZoneSystemParams grid) {
+                    return grid.getCellSize();
+                }
+            }
+        }
+
+        return Double.NaN; // zone queries are rejected
     }
 }
@@ -1,17 +1,25 @@
 package org.irtx.matsim_fleetpy.bridge;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.irtx.matsim_fleetpy.bridge.communication.CommunicationManager;
-import org.irtx.matsim_fleetpy.bridge.communication.messages.Assignment;
+import org.irtx.matsim_fleetpy.bridge.communication.StateBuffer;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.Iteration;
-import org.irtx.matsim_fleetpy.bridge.communication.messages.State;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.IdSet;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.drt.optimizer.DrtOptimizer;
@@ -34,7 +42,6 @@ import org.matsim.contrib.dvrp.passenger.PassengerRequestScheduledEvent;
 import org.matsim.contrib.dvrp.path.VrpPath;
 import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
 import org.matsim.contrib.dvrp.path.VrpPathWithTravelDataImpl;
-import org.matsim.contrib.dvrp.path.VrpPaths;
 import org.matsim.contrib.dvrp.schedule.DriveTask;
 import org.matsim.contrib.dvrp.schedule.Schedule;
 import org.matsim.contrib.dvrp.schedule.Schedule.ScheduleStatus;
@@ -42,35 +49,43 @@ import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
 import org.matsim.contrib.dvrp.schedule.Schedules;
 import org.matsim.contrib.dvrp.schedule.StayTask;
 import org.matsim.contrib.dvrp.schedule.Task;
-import org.matsim.contrib.dvrp.schedule.Task.TaskStatus;
 import org.matsim.contrib.dvrp.tracker.OnlineDriveTaskTracker;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.events.MobsimScopeEventHandler;
 import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
-import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
 
 public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHandler, PassengerDroppedOffEventHandler,
-        MobsimScopeEventHandler {
+        LinkEnterEventHandler, MobsimScopeEventHandler {
+    private final Logger logger = LogManager.getLogger(FleetPyOptimizer.class);
+
     private final CommunicationManager communicationManager;
     private final ScheduleTimingUpdater scheduleTimingUpdater;
     private final Fleet fleet;
     private final Network network;
     private final DrtTaskFactory taskFactory;
     private final TravelTime travelTime;
-    private final LeastCostPathCalculator router;
+    private final BridgeRouter router;
     private final EventsManager eventsManager;
+    private final FleetPyCoordinator coordinator;
+    private final BridgeMetrics metrics;
+    private final VehicleIndex vehicleIndex;
     private final String mode;
 
     private boolean initialized = false;
     private boolean isFirstStep = true;
 
+    private IdEncoder ids;
+
     public FleetPyOptimizer(CommunicationManager communicationManager, ScheduleTimingUpdater scheduleTimingUpdater,
             Fleet fleet, Network network, DrtTaskFactory taskFactory, TravelTime travelTime,
-            LeastCostPathCalculator router, EventsManager eventsManager, String mode) {
+            BridgeRouter router, EventsManager eventsManager, FleetPyCoordinator coordinator, BridgeMetrics metrics,
+            VehicleIndex vehicleIndex, InsertionManager insertionManager, String mode) {
         this.communicationManager = communicationManager;
         this.scheduleTimingUpdater = scheduleTimingUpdater;
         this.fleet = fleet;
@@ -79,25 +94,105 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
         this.travelTime = travelTime;
         this.router = router;
         this.eventsManager = eventsManager;
+        this.coordinator = coordinator;
+        this.metrics = metrics;
+        this.vehicleIndex = vehicleIndex;
         this.mode = mode;
+
+        coordinator.register(this);
+        insertionManager.setOptimizer(this);
     }
 
     private double nextStep = Double.NEGATIVE_INFINITY;
 
+    // pipelined mode: time at which the outstanding assignment is implemented
+    private boolean awaitingAssignment = false;
+    private double assignmentTime = Double.NaN;
+
+    // reused between steps
+    private final StateBuffer state = new StateBuffer();
+    private final AssignmentBuffer assignment = new AssignmentBuffer();
+
+    // whether an assignment has been collected that is not implemented yet
+    private boolean assignmentReceived = false;
+
     @Override
     public void notifyMobsimBeforeSimStep(@SuppressWarnings("rawtypes") MobsimBeforeSimStepEvent e) {
         if (!isFirstStep) {
-            if (e.getSimulationTime() >= nextStep) {
-                Assignment assignment = update(e.getSimulationTime());
-                nextStep += assignment.waitFor;
+            double now = e.getSimulationTime();
 
-                implement(assignment, e.getSimulationTime());
+            if (!initialized) {
+                update(now);
+                nextStep = now + assignment.getWaitFor();
+
+                implement(assignment, now);
+            } else if (communicationManager.getLatency() > 0.0) {
+                updatePipelined(now);
+            } else {
+                // exchanges the states of all modes that are due at once
+                coordinator.exchange(now);
+
+                if (assignmentReceived) {
+                    assignmentReceived = false;
+
+                    nextStep = now + assignment.getWaitFor();
+                    implement(assignment, now);
+                }
             }
         } else {
             isFirstStep = false;
         }
     }
 
+    String getMode() {
+        return mode;
+    }
+
+    boolean isDue(double now) {
+        return initialized && communicationManager.getLatency() <= 0.0 && now >= nextStep;
+    }
+
+    void sendState(double now) {
+        buildState(now);
+        communicationManager.sendState(state);
+    }
+
+    boolean pollAssignment() {
+        assignmentReceived = communicationManager.pollAssignment(assignment);
+        return assignmentReceived;
+    }
+
+    boolean handleResponse(byte[] payload) {
+        assignmentReceived = communicationManager.handleResponse(payload, assignment);
+        return assignmentReceived;
+    }
+
+    private void updatePipelined(double now) {
+        if (awaitingAssignment && !assignmentReceived) {
+            // answers queries while the simulation continues, the assignment is kept until it is due
+            assignmentReceived = communicationManager.pollAssignment(assignment);
+        }
+
+        if (awaitingAssignment && now >= assignmentTime) {
+            if (!assignmentReceived) {
+                communicationManager.receiveAssignment(assignment);
+            }
+
+            awaitingAssignment = false;
+            assignmentReceived = false;
+
+            nextStep = now + assignment.getWaitFor();
+            implement(assignment, now);
+        }
+
+        if (!awaitingAssignment && now >= nextStep) {
+            sendState(now);
+
+            awaitingAssignment = true;
+            assignmentTime = now + communicationManager.getLatency();
+        }
+    }
+
     private List<Request> submitted = new LinkedList<>();
     private IdMap<Request, AcceptedDrtRequest> requests = new IdMap<>(Request.class);
 
@@ -108,127 +203,113 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
         }
     }
 
+    // tasks of the vehicles when their state was last built, for the delta mode
+    private final IdMap<DvrpVehicle, Task> stateTasks = new IdMap<>(DvrpVehicle.class);
+
+    // only vehicles that have been touched by events are inspected when building the state
+    private final IdSet<DvrpVehicle> dirtyVehicles = new IdSet<>(DvrpVehicle.class);
+    private final IdMap<Vehicle, Id<DvrpVehicle>> fleetVehicleIds = new IdMap<>(Vehicle.class);
+
+    private record Wakeup(double time, Id<DvrpVehicle> vehicleId) {
+    }
+
+    private final PriorityQueue<Wakeup> wakeups = new PriorityQueue<>(Comparator.comparingDouble(Wakeup::time));
+    private final IdMap<DvrpVehicle, Double> wakeupTimes = new IdMap<>(DvrpVehicle.class); // pending per vehicle
+
+    private final IdSet<DvrpVehicle> stoppingVehicles = new IdSet<>(DvrpVehicle.class);
+
     private IdMap<Request, Id<DvrpVehicle>> pickedUp = new IdMap<>(Request.class);
     private IdMap<Request, Id<DvrpVehicle>> droppedOff = new IdMap<>(Request.class);
 
-    public Assignment update(double time) {
+    /**
+     * Exchanges the state for the next assignment, which is collected in the
+     * assignment buffer.
+     */
+    public void update(double time) {
         if (!initialized) {
-            List<Iteration.Vehicle> initialVehicles = new LinkedList<>();
+            communicationManager.initialize();
+            setIdEncoder(new IdEncoder(network, fleet, communicationManager.isIndexed()));
+
+            Iteration iteration = new Iteration();
+            iteration.vehicles = new LinkedList<>();
 
             for (DvrpVehicle vehicle : fleet.getVehicles().values()) {
                 Iteration.Vehicle initialVehicle = new Iteration.Vehicle();
-                initialVehicles.add(initialVehicle);
+                iteration.vehicles.add(initialVehicle);
 
-                initialVehicle.id = vehicle.getId().toString();
+                initialVehicle.id = ids.encode(vehicle.getId());
                 initialVehicle.capacity = (int) vehicle.getCapacity().getElement(0);
-                initialVehicle.startLink = vehicle.getStartLink().getId().toString();
+                initialVehicle.startLink = ids.encode(vehicle.getStartLink().getId());
             }
 
-            initialized = true;
-            return communicationManager.startIteration(initialVehicles);
-        } else {
-            State state = new State();
-            state.time = time;
-
-            for (DvrpVehicle vehicle : fleet.getVehicles().values()) {
-                State.Vehicle vehicleState = new State.Vehicle();
-                vehicleState.id = vehicle.getId().toString();
-                state.vehicles.add(vehicleState);
-
-                if (vehicle.getSchedule().getStatus().equals(ScheduleStatus.STARTED)) {
-                    Task currentTask = vehicle.getSchedule().getCurrentTask();
-                    if (DrtTaskBaseType.STAY.isBaseTypeOf(currentTask)) {
-                        vehicleState.state = "stay";
-
-                        StayTask stayTask = (StayTask) currentTask;
-                        vehicleState.currentLink = stayTask.getLink().getId().toString();
-                        vehicleState.currentExitTime = stayTask.getEndTime();
-
-                        vehicleState.divergeLink = vehicleState.currentLink;
-                        vehicleState.divergeTime = time;
-                    } else if (DrtTaskBaseType.STOP.isBaseTypeOf(currentTask)) {
-                        vehicleState.state = "stop";
-
-                        DrtStopTask stopTask = (DrtStopTask) currentTask;
-                        vehicleState.currentLink = stopTask.getLink().getId().toString();
-                        vehicleState.currentExitTime = stopTask.getEndTime();
+            if (ids.isIndexed()) {
+                iteration.links = ids.getLinkTable();
+                iteration.vehicleIds = ids.getVehicleTable();
+            }
 
-                        vehicleState.divergeLink = vehicleState.currentLink;
-                        vehicleState.divergeTime = vehicleState.currentExitTime;
+            startState();
 
-                        for (Id<Request> requestId : stopTask.getPickupRequests().keySet()) {
-                            state.pickingUp.put(requestId.toString(), vehicle.getId().toString());
-                        }
+            initialized = true;
+            communicationManager.startIteration(iteration, ids, assignment);
+        } else {
+            buildState(time);
+            communicationManager.update(state, assignment);
+        }
+    }
 
-                        for (Id<Request> requestId : stopTask.getDropoffRequests().keySet()) {
-                            state.droppingOff.put(requestId.toString(), vehicle.getId().toString());
-                        }
-                    } else if (DrtTaskBaseType.DRIVE.isBaseTypeOf(currentTask)) {
-                        vehicleState.state = "drive";
+    /**
+     * Creates the vehicle slots of the state, all vehicles are rebuilt for the
+     * first one.
+     */
+    void startState() {
+        for (DvrpVehicle vehicle : fleet.getVehicles().values()) {
+            fleetVehicleIds.put(Id.create(vehicle.getId(), Vehicle.class), vehicle.getId());
+            markDirty(vehicle.getId());
+        }
 
-                        DriveTask driveTask = (DriveTask) currentTask;
-                        OnlineDriveTaskTracker tracker = (OnlineDriveTaskTracker) driveTask.getTaskTracker();
+        state.start(fleet.getVehicles().values());
+    }
 
-                        VrpPath path = tracker.getPath();
-                        vehicleState.currentLink = path.getLink(tracker.getCurrentLinkIdx()).getId().toString();
+    StateBuffer buildState(double time) {
+        BridgeMetrics.Span span = metrics.start(BridgeMetrics.Phase.STATE_BUILD);
+        state.clear(time);
 
-                        vehicleState.currentExitTime = tracker.getCurrentLinkEnterTime();
-                        vehicleState.currentExitTime += path.getLinkTravelTime(tracker.getCurrentLinkIdx());
+        for (Id<DvrpVehicle> vehicleId : collectDirtyVehicles(time)) {
+            DvrpVehicle vehicle = fleet.getVehicles().get(vehicleId);
+            boolean changed = updateVehicleState(vehicle, time);
 
-                        vehicleState.divergeLink = tracker.getDiversionPoint().link.getId().toString();
-                        vehicleState.divergeTime = tracker.getDiversionPoint().time;
-                    } else {
-                        throw new IllegalStateException();
-                    }
-                } else {
-                    Task lastTask = Schedules.getLastTask(vehicle.getSchedule());
-
-                    if (lastTask instanceof StayTask stayTask) {
-                        vehicleState.state = "inactive";
-                        vehicleState.currentLink = stayTask.getLink().getId().toString();
-                        vehicleState.currentExitTime = Double.POSITIVE_INFINITY;
-                        vehicleState.divergeLink = vehicleState.currentLink;
-                        vehicleState.divergeTime = Double.POSITIVE_INFINITY;
-                    } else {
-                        DriveTask driveTask = (DriveTask) lastTask;
-                        vehicleState.state = "inactive";
-                        vehicleState.currentLink = driveTask.getPath().getToLink().getId().toString();
-                        vehicleState.currentExitTime = Double.POSITIVE_INFINITY;
-                        vehicleState.divergeLink = vehicleState.currentLink;
-                        vehicleState.divergeTime = Double.POSITIVE_INFINITY;
-                    }
-                }
+            if (communicationManager.isDelta() && changed) {
+                // only send vehicles that changed since the last state
+                state.select(vehicle);
+            }
+        }
 
-                Map<String, List<Task>> stopTracker = taskTrackers.getOrDefault(vehicle.getId(),
-                        Collections.emptyMap());
-                for (var item : stopTracker.entrySet()) {
-                    String stopId = item.getKey();
+        if (!communicationManager.isDelta()) {
+            for (DvrpVehicle vehicle : fleet.getVehicles().values()) {
+                state.select(vehicle);
+            }
+        }
 
-                    boolean hasFinished = true;
+        for (Id<DvrpVehicle> vehicleId : stoppingVehicles) {
+            DrtStopTask stopTask = (DrtStopTask) fleet.getVehicles().get(vehicleId).getSchedule().getCurrentTask();
 
-                    for (Task task : item.getValue()) {
-                        hasFinished &= task.getStatus().equals(TaskStatus.PERFORMED);
-                    }
+            for (Id<Request> requestId : stopTask.getPickupRequests().keySet()) {
+                state.addPickingUp(requestId, vehicleId);
+            }
 
-                    if (hasFinished) {
-                        vehicleState.finished.add(stopId);
-                    }
-                }
+            for (Id<Request> requestId : stopTask.getDropoffRequests().keySet()) {
+                state.addDroppingOff(requestId, vehicleId);
             }
+        }
 
+        synchronized (submitted) {
             for (Request request : submitted) {
                 DrtRequest drtRequest = (DrtRequest) request;
 
-                State.Request requestState = new State.Request();
-                state.submitted.add(requestState);
-                requestState.id = drtRequest.getId().toString();
-
-                requestState.originLink = drtRequest.getFromLink().getId().toString();
-                requestState.destinationLink = drtRequest.getToLink().getId().toString();
-
-                requestState.earliestPickupTime = drtRequest.getConstraints().earliestStartTime();
-                requestState.latestPickupTime = drtRequest.getConstraints().latestStartTime();
-                requestState.latestArrivalTime = drtRequest.getConstraints().latestArrivalTime();
+                state.addSubmitted(drtRequest.getId(), drtRequest.getFromLink(), drtRequest.getToLink(),
+                        drtRequest.getConstraints().earliestStartTime(),
+                        drtRequest.getConstraints().latestStartTime(),
+                        drtRequest.getConstraints().latestArrivalTime());
 
                 AcceptedDrtRequest acceptedRequest = AcceptedDrtRequest.createFromOriginalRequest(drtRequest);
                 requests.put(request.getId(), acceptedRequest);
@@ -236,26 +317,174 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
             }
 
             submitted.clear();
+        }
 
+        synchronized (pickedUp) {
             for (var entry : pickedUp.entrySet()) {
-                state.pickedUp.put(entry.getKey().toString(), entry.getValue().toString());
+                state.addPickedUp(entry.getKey(), entry.getValue());
             }
 
             for (var entry : droppedOff.entrySet()) {
-                state.droppedOff.put(entry.getKey().toString(), entry.getValue().toString());
+                state.addDroppedOff(entry.getKey(), entry.getValue());
             }
 
             pickedUp.clear();
             droppedOff.clear();
+        }
+
+        span.end();
+        return state;
+    }
+
+    private List<Id<DvrpVehicle>> collectDirtyVehicles(double time) {
+        synchronized (dirtyVehicles) {
+            while (!wakeups.isEmpty() && wakeups.peek().time() <= time) {
+                Wakeup wakeup = wakeups.poll();
+
+                // wakeups that have been replaced by a later one are skipped
+                Double wakeupTime = wakeupTimes.get(wakeup.vehicleId());
+                if (wakeupTime != null && wakeupTime == wakeup.time()) {
+                    wakeupTimes.remove(wakeup.vehicleId());
+                    dirtyVehicles.add(wakeup.vehicleId());
+                }
+            }
+
+            List<Id<DvrpVehicle>> vehicleIds = new ArrayList<>(dirtyVehicles);
+            dirtyVehicles.clear();
+            return vehicleIds;
+        }
+    }
+
+    void markDirty(Id<DvrpVehicle> vehicleId) {
+        synchronized (dirtyVehicles) {
+            dirtyVehicles.add(vehicleId);
+        }
+    }
+
+    /**
+     * Rebuilds the state of a vehicle and returns whether it differs from the one
+     * that has been built before.
+     */
+    private boolean updateVehicleState(DvrpVehicle vehicle, double time) {
+        final Task currentTask;
+        final String vehicleState;
+        final Link currentLink;
+        final double currentExitTime;
+        final Link divergeLink;
+        final double divergeTime;
+
+        if (vehicle.getSchedule().getStatus().equals(ScheduleStatus.STARTED)) {
+            currentTask = vehicle.getSchedule().getCurrentTask();
+            if (DrtTaskBaseType.STAY.isBaseTypeOf(currentTask)) {
+                vehicleState = "stay";
+
+                StayTask stayTask = (StayTask) currentTask;
+                currentLink = stayTask.getLink();
+                currentExitTime = stayTask.getEndTime();
+
+                divergeLink = currentLink;
+                divergeTime = time;
+            } else if (DrtTaskBaseType.STOP.isBaseTypeOf(currentTask)) {
+                vehicleState = "stop";
+
+                DrtStopTask stopTask = (DrtStopTask) currentTask;
+                currentLink = stopTask.getLink();
+                currentExitTime = stopTask.getEndTime();
+
+                divergeLink = currentLink;
+                divergeTime = currentExitTime;
+            } else if (DrtTaskBaseType.DRIVE.isBaseTypeOf(currentTask)) {
+                vehicleState = "drive";
+
+                DriveTask driveTask = (DriveTask) currentTask;
+                OnlineDriveTaskTracker tracker = (OnlineDriveTaskTracker) driveTask.getTaskTracker();
+
+                VrpPath path = tracker.getPath();
+                currentLink = path.getLink(tracker.getCurrentLinkIdx());
+                currentExitTime = tracker.getCurrentLinkEnterTime()
+                        + path.getLinkTravelTime(tracker.getCurrentLinkIdx());
+
+                LinkTimePair diversionPoint = tracker.getDiversionPoint();
+                divergeLink = diversionPoint.link;
+                divergeTime = diversionPoint.time;
+            } else {
+                throw new IllegalStateException();
+            }
+        } else {
+            currentTask = Schedules.getLastTask(vehicle.getSchedule());
+            vehicleState = "inactive";
+
+            if (currentTask instanceof StayTask stayTask) {
+                currentLink = stayTask.getLink();
+            } else {
+                currentLink = ((DriveTask) currentTask).getPath().getToLink();
+            }
+
+            currentExitTime = Double.POSITIVE_INFINITY;
+            divergeLink = currentLink;
+            divergeTime = Double.POSITIVE_INFINITY;
+        }
+
+        boolean changed = state.setVehicle(vehicle, vehicleState, currentLink, currentExitTime, divergeLink,
+                divergeTime);
 
-            return communicationManager.update(state);
+        StopTracker stopTracker = stopTrackers.get(vehicle.getId());
+        if (stopTracker != null && !stopTracker.finished.isEmpty()) {
+            state.addFinished(vehicle, stopTracker.finished);
+            stopTracker.finished.clear();
+            changed = true;
         }
+
+        vehicleIndex.update(vehicle, divergeLink, vehicleState);
+
+        if (vehicleState.equals("stop")) {
+            stoppingVehicles.add(vehicle.getId());
+        } else {
+            stoppingVehicles.remove(vehicle.getId());
+        }
+
+        if (vehicleState.equals("drive")) {
+            // the diversion point moves on once the vehicle is late on its link
+            Double wakeupTime = wakeupTimes.put(vehicle.getId(), currentExitTime);
+
+            if (wakeupTime == null || wakeupTime != currentExitTime) {
+                wakeups.add(new Wakeup(currentExitTime, vehicle.getId()));
+            }
+        } else {
+            wakeupTimes.remove(vehicle.getId());
+        }
+
+        // a new task is a change even if the vehicle stays where it is
+        return stateTasks.put(vehicle.getId(), currentTask) != currentTask || changed;
     }
 
     @Override
     public void nextTask(DvrpVehicle vehicle) {
+        Schedule schedule = vehicle.getSchedule();
+        Task endingTask = schedule.getStatus().equals(ScheduleStatus.STARTED) ? schedule.getCurrentTask() : null;
+
         scheduleTimingUpdater.updateBeforeNextTask(vehicle);
-        vehicle.getSchedule().nextTask();
+        schedule.nextTask();
+        markDirty(vehicle.getId());
+
+        StopTracker stopTracker = stopTrackers.get(vehicle.getId());
+        if (endingTask != null && stopTracker != null) {
+            String stopId = stopTracker.stopIds.remove(endingTask);
+
+            if (stopId != null && stopTracker.pendingTasks.merge(stopId, -1, Integer::sum) == 0) {
+                stopTracker.pendingTasks.remove(stopId);
+                stopTracker.finished.add(stopId);
+            }
+        }
+    }
+
+    @Override
+    public void handleEvent(LinkEnterEvent event) {
+        Id<DvrpVehicle> vehicleId = fleetVehicleIds.get(event.getVehicleId());
+
+        if (vehicleId != null) {
+            markDirty(vehicleId);
+        }
     }
 
     @Override
@@ -285,25 +514,53 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
 
     private IdMap<Request, RequestEntry> requestEntries = new IdMap<>(Request.class);
 
-    private IdMap<DvrpVehicle, Map<String, List<Task>>> taskTrackers = new IdMap<>(DvrpVehicle.class);
+    // a stop is finished once all tasks that have been created for it have ended
+    private static class StopTracker {
+        final Map<Task, String> stopIds = new IdentityHashMap<>();
+        final Map<String, Integer> pendingTasks = new HashMap<>();
+        final List<String> finished = new LinkedList<>(); // not reported yet
+    }
+
+    private IdMap<DvrpVehicle, StopTracker> stopTrackers = new IdMap<>(DvrpVehicle.class);
 
     private void trackTask(Id<DvrpVehicle> vehicleId, String stopId, Task task) {
         if (stopId != null) {
-            taskTrackers //
-                    .computeIfAbsent(vehicleId, id -> new HashMap<>()) //
-                    .computeIfAbsent(stopId, id -> new LinkedList<>()) //
-                    .add(task);
+            StopTracker stopTracker = stopTrackers.computeIfAbsent(vehicleId, id -> new StopTracker());
+            stopTracker.stopIds.put(task, stopId);
+            stopTracker.pendingTasks.merge(stopId, 1, Integer::sum);
         }
     }
 
-    private void implement(Assignment assignment, double now) {
+    void setIdEncoder(IdEncoder ids) {
+        this.ids = ids;
+    }
+
+    AcceptedDrtRequest getRequest(Id<Request> requestId) {
+        synchronized (requests) {
+            return requests.get(requestId);
+        }
+    }
+
+    String getStopId(Id<DvrpVehicle> vehicleId, Task task) {
+        StopTracker stopTracker = stopTrackers.get(vehicleId);
+        return stopTracker == null ? null : stopTracker.stopIds.get(task);
+    }
+
+    void implement(AssignmentBuffer assignment, double now) {
+        BridgeMetrics.Span span = metrics.start(BridgeMetrics.Phase.IMPLEMENT);
+
+        // requests whose assignment is changed by this call, only those are validated
+        IdSet<Request> touchedRequests = new IdSet<>(Request.class);
+        IdMap<Request, DrtStopTask> pickupTasks = new IdMap<>(Request.class);
+        IdMap<Request, DrtStopTask> dropoffTasks = new IdMap<>(Request.class);
+
         // first, clear the schedules of vehicles that get things rearranged
-        for (String vehicleId : assignment.stops.keySet()) {
-            DvrpVehicle vehicle = fleet.getVehicles().get(Id.create(vehicleId, DvrpVehicle.class));
+        for (int v = 0; v < assignment.size(); v++) {
+            DvrpVehicle vehicle = assignment.getVehicle(v);
             Schedule schedule = vehicle.getSchedule();
 
             Verify.verify(schedule.getStatus().equals(ScheduleStatus.STARTED),
-                    "Sent instructions for inactive vehicle " + vehicleId);
+                    "Sent instructions for inactive vehicle " + vehicle.getId());
 
             Task currentTask = schedule.getCurrentTask();
 
@@ -314,10 +571,12 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
                 if (task instanceof DrtStopTask stopTask) {
                     for (Id<Request> requestId : stopTask.getPickupRequests().keySet()) {
                         requestEntries.get(requestId).pickupVehicleId = null;
+                        touchedRequests.add(requestId);
                     }
 
                     for (Id<Request> requestId : stopTask.getDropoffRequests().keySet()) {
                         requestEntries.get(requestId).dropoffVehicleId = null;
+                        touchedRequests.add(requestId);
                     }
                 }
             }
@@ -333,9 +592,7 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
         }
 
         // next, rejections
-        for (String rawRequestId : assignment.rejections) {
-            Id<Request> requestId = Id.create(rawRequestId, Request.class);
-
+        for (Id<Request> requestId : assignment.getRejections()) {
             Preconditions.checkState(requestEntries.get(requestId).pickupVehicleId == null,
                     "Request " + requestId + " is rejected but it is still assigned to vehicle "
                             + requestEntries.get(requestId).pickupVehicleId + " (onboard?)");
@@ -347,45 +604,46 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
             requestEntries.remove(requestId);
         }
 
-        // next, reconstruct the schedules
-        taskTrackers.clear();
+        // next, calculate the paths of all vehicles in parallel
+        List<Callable<VrpPathWithTravelData[]>> routingTasks = new ArrayList<>(assignment.size());
 
-        for (var vehicleEntry : assignment.stops.entrySet()) {
-            DvrpVehicle vehicle = fleet.getVehicles().get(Id.create(vehicleEntry.getKey(), DvrpVehicle.class));
+        for (int v = 0; v < assignment.size(); v++) {
+            int vehicleIndex = v;
+            routingTasks.add(() -> planPaths(assignment, vehicleIndex));
+        }
+
+        List<VrpPathWithTravelData[]> plannedPaths = router.runAll(routingTasks);
+
+        // next, reconstruct the schedules in assignment order
+        for (int v = 0; v < assignment.size(); v++) {
+            DvrpVehicle vehicle = assignment.getVehicle(v);
             Schedule schedule = vehicle.getSchedule();
             Task currentTask = schedule.getCurrentTask();
+            VrpPathWithTravelData[] paths = plannedPaths.get(v);
+            int stopCount = assignment.getStopCount(v);
+            markDirty(vehicle.getId());
+
+            // stops of the previous assignment that have not finished are dropped
+            StopTracker stopTracker = stopTrackers.get(vehicle.getId());
+            if (stopTracker != null) {
+                stopTracker.stopIds.clear();
+                stopTracker.pendingTasks.clear();
+            }
 
-            if (vehicleEntry.getValue().size() > 0) {
-                for (int i = 0; i < vehicleEntry.getValue().size(); i++) {
-                    var stop = vehicleEntry.getValue().get(i);
-                    Link stopLink = network.getLinks().get(Id.createLinkId(stop.link));
+            if (stopCount > 0) {
+                for (int i = 0; i < stopCount; i++) {
+                    AssignmentBuffer.Stop stop = assignment.getStop(v, i);
+                    Link stopLink = stop.link;
 
                     // move to the next location
                     if (i == 0 && currentTask instanceof DriveTask driveTask) {
                         // we need to divert the current drive
                         OnlineDriveTaskTracker tracker = (OnlineDriveTaskTracker) driveTask.getTaskTracker();
-
-                        final VrpPathWithTravelData path;
-                        if (stop.route == null) {
-                            path = VrpPaths.calcAndCreatePathForDiversion(tracker.getDiversionPoint(), stopLink, router,
-                                    travelTime);
-                        } else {
-                            path = createPath(stop.route, tracker.getDiversionPoint().time);
-                        }
-
-                        tracker.divertPath(path);
+                        tracker.divertPath(paths[i]);
                         trackTask(vehicle.getId(), stop.id, currentTask);
                     } else if (currentTask instanceof StayTask stayTask && stayTask.getLink() != stopLink) {
                         // we need to add a new drive
-                        final VrpPathWithTravelData path;
-                        if (stop.route == null) {
-                            path = VrpPaths.calcAndCreatePath(stayTask.getLink(), stopLink, currentTask.getEndTime(),
-                                    router, travelTime);
-                        } else {
-                            path = createPath(stop.route, stayTask.getEndTime());
-                        }
-
-                        DriveTask driveTask = taskFactory.createDriveTask(vehicle, path, DrtDriveTask.TYPE);
+                        DriveTask driveTask = taskFactory.createDriveTask(vehicle, paths[i], DrtDriveTask.TYPE);
                         schedule.addTask(driveTask);
 
                         currentTask = driveTask;
@@ -405,14 +663,14 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
                     }
 
                     // insert the next stop
-                    if (stop.pickup.size() > 0 || stop.dropoff.size() > 0) {
+                    if (stop.hasRequests()) {
                         double beginTime = currentTask.getEndTime();
                         double endTime = beginTime + stop.stopDuration;
 
                         DrtStopTask stopTask = taskFactory.createStopTask(vehicle, beginTime, endTime, stopLink);
 
-                        for (String pickupId : stop.pickup) {
-                            AcceptedDrtRequest request = requests.get(Id.create(pickupId, Request.class));
+                        for (Id<Request> pickupId : stop.pickup) {
+                            AcceptedDrtRequest request = requests.get(pickupId);
 
                             Preconditions.checkNotNull(request,
                                     "Request " + pickupId + " is assdigned for pickup to vehicle " + vehicle.getId()
@@ -427,10 +685,12 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
                                             + requestEntries.get(request.getId()).pickupVehicleId);
 
                             requestEntries.get(request.getId()).pickupVehicleId = vehicle.getId();
+                            touchedRequests.add(request.getId());
+                            pickupTasks.put(request.getId(), stopTask);
                         }
 
-                        for (String dropoffId : stop.dropoff) {
-                            AcceptedDrtRequest request = requests.get(Id.create(dropoffId, Request.class));
+                        for (Id<Request> dropoffId : stop.dropoff) {
+                            AcceptedDrtRequest request = requests.get(dropoffId);
 
                             Preconditions.checkNotNull(request,
                                     "Request " + dropoffId + " is assdigned for pickup to vehicle " + vehicle.getId()
@@ -444,6 +704,8 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
                                             + " but is already assigned to vehicle "
                                             + requestEntries.get(request.getId()).dropoffVehicleId);
                             requestEntries.get(request.getId()).dropoffVehicleId = vehicle.getId();
+                            touchedRequests.add(request.getId());
+                            dropoffTasks.put(request.getId(), stopTask);
                         }
 
                         schedule.addTask(stopTask);
@@ -456,11 +718,7 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
                 // stop driving
                 if (currentTask instanceof DriveTask driveTask) {
                     OnlineDriveTaskTracker tracker = (OnlineDriveTaskTracker) driveTask.getTaskTracker();
-
-                    final VrpPathWithTravelData path = VrpPaths.calcAndCreatePathForDiversion(
-                            tracker.getDiversionPoint(), tracker.getDiversionPoint().link, router,
-                            travelTime);
-                    tracker.divertPath(path);
+                    tracker.divertPath(paths[0]);
                 }
             }
 
@@ -484,63 +742,136 @@ public class FleetPyOptimizer implements DrtOptimizer, PassengerPickedUpEventHan
         }
 
         // validation
-        for (var item : requestEntries.entrySet()) {
-            var entry = item.getValue();
+        for (Id<Request> requestId : touchedRequests) {
+            RequestEntry entry = requestEntries.get(requestId);
+
+            if (entry == null) {
+                continue; // rejected
+            }
 
             if (entry.pickupVehicleId != null && entry.dropoffVehicleId == null) {
-                throw new IllegalStateException("Request " + item.getKey() + " is assigned for pickup to vehicle "
+                throw new IllegalStateException("Request " + requestId + " is assigned for pickup to vehicle "
                         + entry.pickupVehicleId + " but has not dropoff assigned");
             }
 
             if (entry.pickupVehicleId == null && entry.dropoffVehicleId != null) {
-                throw new IllegalStateException("Request " + item.getKey() + " is assigned for dropoff to vehicle "
+                throw new IllegalStateException("Request " + requestId + " is assigned for dropoff to vehicle "
                         + entry.dropoffVehicleId + " but has not pickup assigned");
             }
 
             if (entry.pickupVehicleId != entry.dropoffVehicleId) {
-                throw new IllegalStateException("Request " + item.getKey() + " is assigned for pickup to vehicle "
+                throw new IllegalStateException("Request " + requestId + " is assigned for pickup to vehicle "
                         + entry.pickupVehicleId + " and for dropoff to vehicle " + entry.dropoffVehicleId);
             }
 
             if (entry.pickupVehicleId != null && !entry.scheduled) {
                 entry.scheduled = true;
 
-                AcceptedDrtRequest request = requests.get(item.getKey());
+                // a request that has not been scheduled before gets both stops in this call
+                AcceptedDrtRequest request = requests.get(requestId);
+                double pickupTime = pickupTasks.get(requestId).getEndTime();
+                double dropoffTime = dropoffTasks.get(requestId).getBeginTime();
 
-                double pickupTime = 0.0;
-                double dropoffTime = 0.0;
+                eventsManager.processEvent(new PassengerRequestScheduledEvent(now, mode, request.getId(),
+                        request.getPassengerIds(), entry.pickupVehicleId, pickupTime, dropoffTime));
+            }
+        }
 
-                DvrpVehicle vehicle = fleet.getVehicles().get(entry.pickupVehicleId);
-                Schedule schedule = vehicle.getSchedule();
+        span.end();
+    }
 
-                for (Task task : schedule.getTasks().subList(schedule.getCurrentTask().getTaskIdx(),
-                        schedule.getTaskCount())) {
-                    if (task instanceof DrtStopTask stopTask) {
-                        if (stopTask.getPickupRequests().containsKey(request.getId())) {
-                            pickupTime = stopTask.getEndTime();
-                        }
+    /**
+     * Calculates the paths that are needed to reconstruct the schedule of a
+     * vehicle, by position of the stop that they lead to. This runs on the routing
+     * threads, so it only reads the (already cleared) schedule and follows the
+     * same timing as the reconstruction.
+     */
+    private VrpPathWithTravelData[] planPaths(AssignmentBuffer assignment, int vehicleIndex) {
+        Task currentTask = assignment.getVehicle(vehicleIndex).getSchedule().getCurrentTask();
+        int stopCount = assignment.getStopCount(vehicleIndex);
+        VrpPathWithTravelData[] paths = new VrpPathWithTravelData[Math.max(1, stopCount)];
+
+        if (stopCount == 0) {
+            if (currentTask instanceof DriveTask driveTask) {
+                // stop driving
+                LinkTimePair diversionPoint = ((OnlineDriveTaskTracker) driveTask.getTaskTracker())
+                        .getDiversionPoint();
+                paths[0] = router.calcPathForDiversion(diversionPoint, diversionPoint.link);
+            }
 
-                        if (stopTask.getDropoffRequests().containsKey(request.getId())) {
-                            dropoffTime = stopTask.getBeginTime();
-                        }
-                    }
+            return paths;
+        }
+
+        boolean driving = currentTask instanceof DriveTask;
+        Link currentLink = driving ? null : ((StayTask) currentTask).getLink();
+        double endTime = currentTask.getEndTime();
+
+        for (int i = 0; i < stopCount; i++) {
+            AssignmentBuffer.Stop stop = assignment.getStop(vehicleIndex, i);
+            Link stopLink = stop.link;
+
+            if (i == 0 && driving) {
+                LinkTimePair diversionPoint = ((OnlineDriveTaskTracker) ((DriveTask) currentTask).getTaskTracker())
+                        .getDiversionPoint();
+
+                if (!useRoute(stop, diversionPoint.link)) {
+                    paths[i] = router.calcPathForDiversion(diversionPoint, stopLink);
+                } else {
+                    paths[i] = createPath(stop.route, diversionPoint.time, travelTime);
                 }
 
-                eventsManager.processEvent(new PassengerRequestScheduledEvent(now, mode, request.getId(),
-                        request.getPassengerIds(), entry.pickupVehicleId, pickupTime, dropoffTime));
+                endTime = paths[i].getArrivalTime();
+            } else if (!driving && currentLink != stopLink) {
+                if (!useRoute(stop, currentLink)) {
+                    paths[i] = router.calcPath(currentLink, stopLink, endTime);
+                } else {
+                    paths[i] = createPath(stop.route, endTime, travelTime);
+                }
+
+                driving = true;
+                endTime = paths[i].getArrivalTime();
+            }
+
+            if (endTime < stop.earliestStartTime) {
+                driving = false;
+                currentLink = stopLink;
+                endTime = stop.earliestStartTime;
+            }
+
+            if (stop.hasRequests()) {
+                driving = false;
+                currentLink = stopLink;
+                endTime += stop.stopDuration;
             }
         }
+
+        return paths;
+    }
+
+    private boolean useRoute(AssignmentBuffer.Stop stop, Link startLink) {
+        if (!stop.hasRoute) {
+            return false;
+        }
+
+        if (communicationManager.getLatency() > 0.0 && stop.route.get(0) != startLink) {
+            // in pipelined mode, the vehicle may have moved on since the state was sent
+            logger.warn("Route for stop on link " + stop.link.getId() + " does not start at " + startLink.getId()
+                    + " anymore, routing automatically");
+            return false;
+        }
+
+        return true;
     }
 
-    private VrpPathWithTravelData createPath(List<String> rawRoute, double departureTime) {
+    static VrpPathWithTravelData createPath(List<Link> route, double departureTime, TravelTime travelTime) {
         double routeTravelTime = 0.0;
         double enterTime = departureTime;
 
-        Link[] links = new Link[rawRoute.size()];
-        double[] travelTimes = new double[rawRoute.size()];
+        Link[] links = new Link[route.size()];
+        double[] travelTimes = new double[route.size()];
 
-        for (int k = 0; k < rawRoute.size(); k++) {
-            Link link = network.getLinks().get(Id.createLinkId(rawRoute.get(k)));
+        for (int k = 0; k < route.size(); k++) {
+            Link link = route.get(k);
             links[k] = link;
             travelTimes[k] = travelTime.getLinkTravelTime(link, enterTime, null, null);
             routeTravelTime += travelTimes[k];
@@ -8,9 +8,6 @@ import org.matsim.contrib.dvrp.fleet.Fleet;
 import org.matsim.contrib.dvrp.run.AbstractDvrpModeQSimModule;
 import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
 import org.matsim.core.api.experimental.events.EventsManager;
-import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
-import org.matsim.core.router.speedy.SpeedyALTFactory;
-import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.core.router.util.TravelTime;
 
 import com.google.inject.Singleton;
@@ -26,9 +23,6 @@ public class FleetPyQSimModule extends AbstractDvrpModeQSimModule {
             Network network = getter.getModal(Network.class);
             TravelTime travelTime = getter.getModal(TravelTime.class);
 
-            LeastCostPathCalculator router = new SpeedyALTFactory().createPathCalculator(network,
-                    new OnlyTimeDependentTravelDisutility(travelTime), travelTime);
-
             return new FleetPyOptimizer(
                     getter.getModal(CommunicationManager.class), //
                     getter.getModal(ScheduleTimingUpdater.class), //
@@ -36,8 +30,12 @@ public class FleetPyQSimModule extends AbstractDvrpModeQSimModule {
                     network, //
                     getter.getModal(DrtTaskFactory.class), //
                     travelTime, //
-                    router, //
+                    getter.getModal(BridgeRouter.class), //
                     getter.get(EventsManager.class), //
+                    getter.get(FleetPyCoordinator.class), //
+                    getter.getModal(BridgeMetrics.class), //
+                    getter.getModal(VehicleIndex.class), //
+                    getter.getModal(InsertionManager.class), //
                     getMode());
         })).in(Singleton.class);
 
@@ -0,0 +1,34 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import org.irtx.matsim_fleetpy.bridge.communication.CommunicationServer;
+import org.irtx.matsim_fleetpy.bridge.communication.Transport;
+import org.matsim.core.controler.AbstractModule;
+
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+public class FleetPyServerModule extends AbstractModule {
+    private final Transport transport;
+
+    public FleetPyServerModule(Transport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public void install() {
+        addControlerListenerBinding().to(CommunicationServer.class);
+        addControlerListenerBinding().to(FleetPyCoordinator.class);
+    }
+
+    @Provides
+    @Singleton
+    CommunicationServer provideCommunicationServer() {
+        return new CommunicationServer(transport);
+    }
+
+    @Provides
+    @Singleton
+    FleetPyCoordinator provideFleetPyCoordinator(CommunicationServer server) {
+        return new FleetPyCoordinator(server);
+    }
+}
@@ -0,0 +1,99 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+
+public class IdEncoder {
+    private final Network network;
+    private final Fleet fleet;
+    private final boolean indexed;
+
+    private final Link[] links;
+    private final DvrpVehicle[] vehicles;
+
+    public IdEncoder(Network network, Fleet fleet, boolean indexed) {
+        this.network = network;
+        this.fleet = fleet;
+        this.indexed = indexed;
+
+        if (indexed) {
+            // identifiers are represented by their dense MATSim index
+            links = new Link[Id.getNumberOfIds(Link.class)];
+            for (Link link : network.getLinks().values()) {
+                links[link.getId().index()] = link;
+            }
+
+            vehicles = new DvrpVehicle[Id.getNumberOfIds(DvrpVehicle.class)];
+            for (DvrpVehicle vehicle : fleet.getVehicles().values()) {
+                vehicles[vehicle.getId().index()] = vehicle;
+            }
+        } else {
+            links = null;
+            vehicles = null;
+        }
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    public String encode(Id<?> id) {
+        return indexed ? String.valueOf(id.index()) : id.toString();
+    }
+
+    public Link decodeLink(String raw) {
+        if (indexed) {
+            return getLink(Integer.parseInt(raw));
+        } else {
+            return network.getLinks().get(Id.createLinkId(raw));
+        }
+    }
+
+    public DvrpVehicle decodeVehicle(String raw) {
+        if (indexed) {
+            return getVehicle(Integer.parseInt(raw));
+        } else {
+            return fleet.getVehicles().get(Id.create(raw, DvrpVehicle.class));
+        }
+    }
+
+    /**
+     * Only in indexed mode, returns null for indices that are not in the network.
+     */
+    public Link getLink(int index) {
+        return index >= 0 && index < links.length ? links[index] : null;
+    }
+
+    /**
+     * Only in indexed mode, returns null for indices that are not in the fleet.
+     */
+    public DvrpVehicle getVehicle(int index) {
+        return index >= 0 && index < vehicles.length ? vehicles[index] : null;
+    }
+
+    public List<String> getLinkTable() {
+        List<String> table = new ArrayList<>(links.length);
+
+        for (Link link : links) {
+            table.add(link == null ? null : link.getId().toString());
+        }
+
+        return table;
+    }
+
+    public List<String> getVehicleTable() {
+        List<String> table = new ArrayList<>(vehicles.length);
+
+        for (DvrpVehicle vehicle : vehicles) {
+            table.add(vehicle == null ? null : vehicle.getId().toString());
+        }
+
+        return table;
+    }
+}
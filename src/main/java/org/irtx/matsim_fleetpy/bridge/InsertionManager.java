@@ -0,0 +1,525 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.irtx.matsim_fleetpy.bridge.communication.QueryHandler;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.InsertionQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.InsertionResponse;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.drt.passenger.AcceptedDrtRequest;
+import org.matsim.contrib.drt.schedule.DrtStopTask;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.path.OneToManyPathSearch.PathData;
+import org.matsim.contrib.dvrp.schedule.DriveTask;
+import org.matsim.contrib.dvrp.schedule.Schedule;
+import org.matsim.contrib.dvrp.schedule.Schedule.ScheduleStatus;
+import org.matsim.contrib.dvrp.schedule.StayTask;
+import org.matsim.contrib.dvrp.schedule.Task;
+import org.matsim.contrib.dvrp.tracker.OnlineDriveTaskTracker;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Evaluates the insertion of requests into the current schedules of vehicles.
+ * For every pair, all positions of a new pickup and dropoff stop between the
+ * planned stops are simulated. Insertions are feasible if the time windows of
+ * the new and the planned requests, the capacity and the service end are
+ * respected. Limits that are already violated by the current schedule only must
+ * not get worse.
+ *
+ * As in DRT, the travel times are calculated before the positions are
+ * evaluated: the legs between the planned stops once per vehicle at the times of
+ * the current schedule, and the legs to and from the new stops with four search
+ * trees per request at its earliest start time, towards the links of all
+ * vehicles. The legs of the new stops are therefore an approximation whenever
+ * the vehicle departs from or towards them at another time. A new pickup or
+ * dropoff directly after a planned stop on the same link is served by that
+ * stop. Each vehicle reuses the same scratch timing for all positions. The
+ * schedules and requests are read into records first, so the evaluation does
+ * not depend on the running simulation.
+ *
+ * The DRT insertion search is not used, since it works on the schedules that
+ * DRT builds itself (its vehicle entries expect the DRT stop and stay task
+ * structure and precalculated slack times) and is bound to the DRT optimizer of
+ * the mobsim, while the schedules here are rebuilt from the assignments of the
+ * dispatcher.
+ */
+public class InsertionManager implements QueryHandler<InsertionQuery> {
+    static private final int MAXIMUM_PAIRS = 100000; // requests times vehicles
+    static private final int MAXIMUM_STOPS = 50; // planned stops per vehicle
+
+    private final BridgeRouter router;
+
+    private FleetPyOptimizer optimizer; // of the current mobsim
+
+    public InsertionManager(BridgeRouter router) {
+        this.router = router;
+    }
+
+    void setOptimizer(FleetPyOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    // the latest begin time is the tightest pickup or arrival window of the requests of the stop
+    record PlannedStop(Link link, double earliestStartTime, double duration, int loadChange,
+            double latestBeginTime) {
+    }
+
+    record VehicleSchedule(Link startLink, double startTime, int startLoad, int capacity, double serviceEndTime,
+            List<PlannedStop> stops) {
+    }
+
+    // time windows of a request that is inserted
+    record NewRequest(Link pickupLink, Link dropoffLink, double earliestStartTime, double latestStartTime,
+            double latestArrivalTime) {
+    }
+
+    // times at which the stops of a simulated schedule begin and the schedule ends
+    static private class Timing {
+        final double[] beginTimes;
+        double pickupTime = Double.NaN;
+        double dropoffTime = Double.NaN;
+        double endTime;
+
+        Timing(int stops) {
+            this.beginTimes = new double[stops];
+        }
+    }
+
+    // travel times between the new stops of a request and the links of all schedules
+    private record RequestLegs(double[] toPickup, double[] fromPickup, double[] toDropoff, double[] fromDropoff,
+            double directTravelTime) {
+    }
+
+    static private final int PICKUP = -1;
+    static private final int DROPOFF = -2;
+
+    @Override
+    public InsertionResponse handle(InsertionQuery query, double now, IdEncoder ids) {
+        Preconditions.checkState(optimizer != null, "No simulation is running");
+
+        List<String> rawRequestIds = new ArrayList<>(query.requests);
+        List<String> rawVehicleIds = new ArrayList<>(query.vehicles);
+
+        Preconditions.checkArgument((long) rawRequestIds.size() * rawVehicleIds.size() <= MAXIMUM_PAIRS,
+                "Too many requests and vehicles to evaluate insertions: " + rawRequestIds.size() + " x "
+                        + rawVehicleIds.size());
+
+        List<NewRequest> requests = new ArrayList<>(rawRequestIds.size());
+        for (String rawRequestId : rawRequestIds) {
+            AcceptedDrtRequest request = optimizer.getRequest(Id.create(rawRequestId, Request.class));
+            Preconditions.checkArgument(request != null, "Unknown request: " + rawRequestId);
+
+            requests.add(new NewRequest(request.getFromLink(), request.getToLink(), request.getEarliestStartTime(),
+                    request.getLatestStartTime(), request.getLatestArrivalTime()));
+        }
+
+        InsertionResponse response = new InsertionResponse();
+
+        // the schedules are read here, only the evaluation runs in parallel
+        List<VehicleSchedule> schedules = new ArrayList<>(rawVehicleIds.size());
+        for (String rawVehicleId : rawVehicleIds) {
+            DvrpVehicle vehicle = ids.decodeVehicle(rawVehicleId);
+            Preconditions.checkArgument(vehicle != null, "Unknown vehicle: " + rawVehicleId);
+
+            List<String> stopIds = new ArrayList<>();
+            schedules.add(readSchedule(vehicle, now, stopIds));
+            response.stops.put(rawVehicleId, stopIds);
+
+            Preconditions.checkArgument(stopIds.size() <= MAXIMUM_STOPS,
+                    "Too many planned stops to evaluate insertions: " + rawVehicleId + " has " + stopIds.size());
+        }
+
+        List<List<List<InsertionResponse.Insertion>>> results = evaluateAll(requests, schedules, now,
+                query.stopDuration);
+
+        for (int i = 0; i < requests.size(); i++) {
+            for (int j = 0; j < schedules.size(); j++) {
+                List<InsertionResponse.Insertion> insertions = results.get(j).get(i);
+
+                for (InsertionResponse.Insertion insertion : insertions) {
+                    insertion.request = rawRequestIds.get(i);
+                    insertion.vehicle = rawVehicleIds.get(j);
+                }
+
+                if (query.best) {
+                    if (!insertions.isEmpty()) {
+                        response.insertions.add(insertions.get(0));
+                    }
+                } else {
+                    response.insertions.addAll(insertions);
+                }
+            }
+        }
+
+        return response;
+    }
+
+    /**
+     * Evaluates all pairs of requests and schedules in parallel and returns the
+     * feasible insertions per schedule and request, ordered by their detour.
+     * Schedules that are null have no insertions.
+     */
+    List<List<List<InsertionResponse.Insertion>>> evaluateAll(List<NewRequest> requests,
+            List<VehicleSchedule> schedules, double now, double stopDuration) {
+        // positions of the vehicle start and the planned stops among the links of all schedules
+        List<Link> links = new ArrayList<>();
+        Map<Link, Integer> linkIndices = new HashMap<>();
+        List<int[]> scheduleNodes = new ArrayList<>(schedules.size());
+
+        for (VehicleSchedule schedule : schedules) {
+            if (schedule == null) {
+                scheduleNodes.add(null);
+                continue;
+            }
+
+            int[] nodes = new int[schedule.stops().size() + 1];
+            nodes[0] = getLinkIndex(schedule.startLink(), links, linkIndices);
+
+            for (int k = 0; k < schedule.stops().size(); k++) {
+                nodes[k + 1] = getLinkIndex(schedule.stops().get(k).link(), links, linkIndices);
+            }
+
+            scheduleNodes.add(nodes);
+        }
+
+        List<RequestLegs> requestLegs = List.of();
+
+        if (!links.isEmpty()) {
+            List<Callable<RequestLegs>> legTasks = new ArrayList<>(requests.size());
+            for (NewRequest request : requests) {
+                legTasks.add(() -> calculateRequestLegs(request, links, now));
+            }
+
+            requestLegs = router.runAll(legTasks);
+        }
+
+        List<RequestLegs> allRequestLegs = requestLegs;
+        List<Callable<List<List<InsertionResponse.Insertion>>>> tasks = new ArrayList<>(schedules.size());
+
+        for (int j = 0; j < schedules.size(); j++) {
+            VehicleSchedule schedule = schedules.get(j);
+            int[] nodes = scheduleNodes.get(j);
+
+            tasks.add(() -> {
+                List<List<InsertionResponse.Insertion>> vehicleInsertions = new ArrayList<>(requests.size());
+
+                double[] legs = null;
+                Timing baseline = null;
+                Timing timing = null; // scratch for all positions
+
+                if (schedule != null) {
+                    legs = new double[schedule.stops().size()];
+                    baseline = simulateBaseline(schedule, legs);
+                    timing = new Timing(schedule.stops().size());
+                }
+
+                for (int i = 0; i < requests.size(); i++) {
+                    List<InsertionResponse.Insertion> insertions = schedule == null ? List.of()
+                            : evaluate(schedule, nodes, legs, baseline, timing, requests.get(i),
+                                    allRequestLegs.get(i), stopDuration);
+
+                    vehicleInsertions.add(insertions);
+                }
+
+                return vehicleInsertions;
+            });
+        }
+
+        return router.runAll(tasks);
+    }
+
+    static private int getLinkIndex(Link link, List<Link> links, Map<Link, Integer> linkIndices) {
+        Integer index = linkIndices.get(link);
+
+        if (index == null) {
+            index = links.size();
+            linkIndices.put(link, index);
+            links.add(link);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns null if the vehicle is not in service.
+     */
+    private VehicleSchedule readSchedule(DvrpVehicle vehicle, double now, List<String> stopIds) {
+        Schedule schedule = vehicle.getSchedule();
+
+        if (!schedule.getStatus().equals(ScheduleStatus.STARTED)) {
+            return null;
+        }
+
+        Task currentTask = schedule.getCurrentTask();
+
+        final Link startLink;
+        final double startTime;
+
+        if (currentTask instanceof DriveTask driveTask) {
+            LinkTimePair diversionPoint = ((OnlineDriveTaskTracker) driveTask.getTaskTracker()).getDiversionPoint();
+            startLink = diversionPoint.link;
+            startTime = diversionPoint.time;
+        } else if (currentTask instanceof DrtStopTask stopTask) {
+            // the ongoing stop is completed first
+            startLink = stopTask.getLink();
+            startTime = stopTask.getEndTime();
+        } else {
+            startLink = ((StayTask) currentTask).getLink();
+            startTime = now;
+        }
+
+        List<PlannedStop> stops = new ArrayList<>();
+        int startLoad = 0; // passengers that are dropped off later but not picked up later
+        double earliestStartTime = Double.NEGATIVE_INFINITY;
+
+        for (int k = currentTask.getTaskIdx() + 1; k < schedule.getTaskCount(); k++) {
+            Task task = schedule.getTasks().get(k);
+
+            if (task instanceof DrtStopTask stopTask) {
+                int pickups = stopTask.getPickupRequests().size();
+                int dropoffs = stopTask.getDropoffRequests().size();
+                double latestBeginTime = Double.POSITIVE_INFINITY;
+
+                for (AcceptedDrtRequest request : stopTask.getPickupRequests().values()) {
+                    earliestStartTime = Math.max(earliestStartTime, request.getEarliestStartTime());
+                    latestBeginTime = Math.min(latestBeginTime, request.getLatestStartTime());
+                }
+
+                for (AcceptedDrtRequest request : stopTask.getDropoffRequests().values()) {
+                    latestBeginTime = Math.min(latestBeginTime, request.getLatestArrivalTime());
+                }
+
+                stops.add(new PlannedStop(stopTask.getLink(), earliestStartTime,
+                        stopTask.getEndTime() - stopTask.getBeginTime(), pickups - dropoffs, latestBeginTime));
+                stopIds.add(optimizer.getStopId(vehicle.getId(), stopTask));
+
+                startLoad += dropoffs - pickups;
+                earliestStartTime = Double.NEGATIVE_INFINITY;
+            } else if (task instanceof StayTask stayTask && k < schedule.getTaskCount() - 1) {
+                // a wait that has been requested before the next stop
+                earliestStartTime = stayTask.getEndTime();
+            }
+        }
+
+        return new VehicleSchedule(startLink, startTime, startLoad, (int) vehicle.getCapacity().getElement(0),
+                vehicle.getServiceEndTime(), stops);
+    }
+
+    /**
+     * Legs from and to the new stops, with backward trees towards the pickup and
+     * the dropoff and forward trees from them.
+     */
+    private RequestLegs calculateRequestLegs(NewRequest request, List<Link> links, double now) {
+        Link pickupLink = request.pickupLink();
+        Link dropoffLink = request.dropoffLink();
+
+        double pickupTime = Math.max(now, request.earliestStartTime());
+        double directTravelTime = getTravelTime(pickupLink, dropoffLink, pickupTime);
+        double dropoffTime = pickupTime + directTravelTime;
+
+        return new RequestLegs( //
+                getTravelTimes(router.calcBackwardPathTree(pickupLink, links, pickupTime), pickupLink, links), //
+                getTravelTimes(router.calcPathTree(pickupLink, links, pickupTime), pickupLink, links), //
+                getTravelTimes(router.calcBackwardPathTree(dropoffLink, links, dropoffTime), dropoffLink, links), //
+                getTravelTimes(router.calcPathTree(dropoffLink, links, dropoffTime), dropoffLink, links), //
+                directTravelTime);
+    }
+
+    static private double[] getTravelTimes(PathData[] tree, Link link, List<Link> links) {
+        double[] travelTimes = new double[links.size()];
+
+        for (int k = 0; k < travelTimes.length; k++) {
+            travelTimes[k] = links.get(k) == link ? 0.0 : tree[k].getTravelTime();
+        }
+
+        return travelTimes;
+    }
+
+    /**
+     * Simulates the current schedule and fills in the travel times from the
+     * vehicle start or the previous stop to each planned stop.
+     */
+    private Timing simulateBaseline(VehicleSchedule schedule, double[] legs) {
+        List<PlannedStop> stops = schedule.stops();
+        Timing timing = new Timing(stops.size());
+
+        Link link = schedule.startLink();
+        double time = schedule.startTime();
+
+        for (int k = 0; k < stops.size(); k++) {
+            PlannedStop stop = stops.get(k);
+
+            legs[k] = getTravelTime(link, stop.link(), time);
+            time = Math.max(time + legs[k], stop.earliestStartTime());
+            timing.beginTimes[k] = time;
+            time += stop.duration();
+            link = stop.link();
+        }
+
+        timing.endTime = time;
+        return timing;
+    }
+
+    private List<InsertionResponse.Insertion> evaluate(VehicleSchedule schedule, int[] nodes, double[] legs,
+            Timing baseline, Timing timing, NewRequest request, RequestLegs requestLegs, double stopDuration) {
+        List<InsertionResponse.Insertion> insertions = new ArrayList<>();
+        List<PlannedStop> stops = schedule.stops();
+
+        Link pickupLink = request.pickupLink();
+        Link dropoffLink = request.dropoffLink();
+
+        for (int pickupIndex = 0; pickupIndex <= stops.size(); pickupIndex++) {
+            boolean pickupMerged = pickupIndex > 0 && stops.get(pickupIndex - 1).link() == pickupLink;
+
+            if (!pickupMerged && pickupIndex < stops.size() && stops.get(pickupIndex).link() == pickupLink) {
+                continue; // the same as merging into the next stop
+            }
+
+            for (int dropoffIndex = pickupIndex; dropoffIndex <= stops.size(); dropoffIndex++) {
+                boolean dropoffMerged = dropoffIndex > pickupIndex
+                        && stops.get(dropoffIndex - 1).link() == dropoffLink;
+
+                if (!dropoffMerged && dropoffIndex < stops.size() && stops.get(dropoffIndex).link() == dropoffLink) {
+                    continue;
+                }
+
+                boolean simulated = simulate(schedule, nodes, legs, request, requestLegs, pickupIndex, pickupMerged,
+                        dropoffIndex, dropoffMerged, stopDuration, timing);
+
+                if (simulated && isFeasible(schedule, request, timing, baseline)) {
+                    InsertionResponse.Insertion insertion = new InsertionResponse.Insertion();
+                    insertion.pickupIndex = pickupIndex;
+                    insertion.dropoffIndex = dropoffIndex;
+                    insertion.pickupMerged = pickupMerged;
+                    insertion.dropoffMerged = dropoffMerged;
+                    insertion.pickupTime = timing.pickupTime;
+                    insertion.dropoffTime = timing.dropoffTime;
+                    insertion.detour = timing.endTime - baseline.endTime;
+                    insertions.add(insertion);
+                }
+            }
+        }
+
+        insertions.sort(Comparator.comparingDouble(insertion -> insertion.detour));
+        return insertions;
+    }
+
+    /**
+     * Simulates the schedule with the new pickup and dropoff inserted before the
+     * planned stops with the given indices, only from the precalculated travel
+     * times. A merged pickup or dropoff is served by the planned stop before the
+     * index, which is extended if needed. The times are written into the given
+     * timing. Returns false if the capacity is exceeded.
+     */
+    private boolean simulate(VehicleSchedule schedule, int[] nodes, double[] legs, NewRequest request,
+            RequestLegs requestLegs, int pickupIndex, boolean pickupMerged, int dropoffIndex, boolean dropoffMerged,
+            double stopDuration, Timing timing) {
+        List<PlannedStop> stops = schedule.stops();
+        double[] beginTimes = timing.beginTimes;
+
+        int previous = 0; // position in the nodes, or the new pickup or dropoff
+        double time = schedule.startTime();
+        int load = schedule.startLoad();
+
+        double pickupTime = Double.NaN;
+        double dropoffTime = Double.NaN;
+
+        for (int k = 0; k <= stops.size(); k++) {
+            if (k == pickupIndex) {
+                if (pickupMerged) {
+                    pickupTime = Math.max(beginTimes[k - 1], request.earliestStartTime());
+                    time = Math.max(time, pickupTime + stopDuration);
+                } else {
+                    time = Math.max(time + requestLegs.toPickup()[nodes[previous]], request.earliestStartTime());
+                    pickupTime = time;
+                    time += stopDuration;
+                    previous = PICKUP;
+                }
+
+                if (++load > schedule.capacity()) {
+                    return false;
+                }
+            }
+
+            if (k == dropoffIndex) {
+                if (dropoffMerged) {
+                    dropoffTime = beginTimes[k - 1];
+                    time = Math.max(time, dropoffTime + stopDuration);
+                } else {
+                    time += previous == PICKUP ? requestLegs.directTravelTime()
+                            : requestLegs.toDropoff()[nodes[previous]];
+                    dropoffTime = time;
+                    time += stopDuration;
+                    previous = DROPOFF;
+                }
+
+                load--;
+            }
+
+            if (k < stops.size()) {
+                PlannedStop stop = stops.get(k);
+
+                double travelTime = switch (previous) {
+                    case PICKUP -> requestLegs.fromPickup()[nodes[k + 1]];
+                    case DROPOFF -> requestLegs.fromDropoff()[nodes[k + 1]];
+                    default -> legs[k]; // from the previous planned stop
+                };
+
+                time = Math.max(time + travelTime, stop.earliestStartTime());
+                beginTimes[k] = time;
+                time += stop.duration();
+                previous = k + 1;
+
+                load += stop.loadChange();
+                if (load > schedule.capacity()) {
+                    return false;
+                }
+            }
+        }
+
+        timing.pickupTime = pickupTime;
+        timing.dropoffTime = dropoffTime;
+        timing.endTime = time;
+        return true;
+    }
+
+    private boolean isFeasible(VehicleSchedule schedule, NewRequest request, Timing timing, Timing baseline) {
+        if (timing.pickupTime > request.latestStartTime() || timing.dropoffTime > request.latestArrivalTime()) {
+            return false;
+        }
+
+        if (isLate(timing.endTime, schedule.serviceEndTime(), baseline.endTime)) {
+            return false;
+        }
+
+        // late for the tightest window of a stop if and only if late for one of its requests
+        for (int k = 0; k < schedule.stops().size(); k++) {
+            if (isLate(timing.beginTimes[k], schedule.stops().get(k).latestBeginTime(), baseline.beginTimes[k])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static private boolean isLate(double time, double limit, double baselineTime) {
+        return time > Math.max(limit, baselineTime);
+    }
+
+    private double getTravelTime(Link from, Link to, double departureTime) {
+        if (from == to) {
+            return 0.0;
+        }
+
+        return router.calcPath(from, to, departureTime).getTravelTime();
+    }
+}
@@ -0,0 +1,334 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.irtx.matsim_fleetpy.bridge.communication.QueryHandler;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.MatchQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.MatchResponse;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.path.OneToManyPathSearch.PathData;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Solves request-vehicle assignment problems for the dispatcher. The candidate
+ * pairs are split into independent components that are solved in parallel,
+ * which pays off for the sparse problems that arise when pairs are limited to
+ * nearby vehicles. Each component is solved on a single thread, so a dense
+ * problem does not profit from more cores.
+ */
+public class MatchManager implements QueryHandler<MatchQuery> {
+    static private final int MAXIMUM_DENSE_PAIRS = 1000000; // without candidate pairs
+
+    private final BridgeRouter router;
+
+    public MatchManager(BridgeRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public MatchResponse handle(MatchQuery query, double now, IdEncoder ids) {
+        int requests = query.requestLinks != null ? query.requestLinks.size() : query.requests;
+        int vehicles = query.vehicleLinks != null ? query.vehicleLinks.size() : query.vehicles;
+
+        int[] pairRequests = query.pairRequests;
+        int[] pairVehicles = query.pairVehicles;
+
+        if (pairRequests == null) {
+            Preconditions.checkArgument(query.pairVehicles == null, "Pairs need requests and vehicles");
+            Preconditions.checkArgument((long) requests * vehicles <= MAXIMUM_DENSE_PAIRS,
+                    "Too many requests and vehicles to match all pairs, candidate pairs are needed: " + requests
+                            + " x " + vehicles);
+
+            pairRequests = new int[requests * vehicles];
+            pairVehicles = new int[requests * vehicles];
+
+            for (int i = 0; i < requests; i++) {
+                for (int j = 0; j < vehicles; j++) {
+                    pairRequests[i * vehicles + j] = i;
+                    pairVehicles[i * vehicles + j] = j;
+                }
+            }
+        }
+
+        Preconditions.checkArgument(pairVehicles != null && pairVehicles.length == pairRequests.length,
+                "Pairs need requests and vehicles");
+
+        for (int a = 0; a < pairRequests.length; a++) {
+            Preconditions.checkArgument(pairRequests[a] >= 0 && pairRequests[a] < requests,
+                    "Unknown request position: " + pairRequests[a]);
+            Preconditions.checkArgument(pairVehicles[a] >= 0 && pairVehicles[a] < vehicles,
+                    "Unknown vehicle position: " + pairVehicles[a]);
+        }
+
+        double[] costs = query.costs;
+
+        if (costs == null) {
+            costs = calculateTravelTimes(query, pairRequests, pairVehicles, now, ids);
+        }
+
+        Preconditions.checkArgument(costs.length == pairRequests.length, "Expected one cost per pair");
+        Preconditions.checkArgument(query.maximumCost == null || !Double.isNaN(query.maximumCost),
+                "Maximum cost is NaN");
+        Preconditions.checkArgument(query.unassignedCost == null || Double.isFinite(query.unassignedCost),
+                "Unassigned cost must be finite");
+
+        // unreachable pairs and pairs above the maximum are dropped, into new arrays to keep the query intact
+        double maximumCost = query.maximumCost == null ? Double.POSITIVE_INFINITY : query.maximumCost;
+
+        int[] keptRequests = new int[costs.length];
+        int[] keptVehicles = new int[costs.length];
+        double[] keptCosts = new double[costs.length];
+        int count = 0;
+
+        for (int a = 0; a < costs.length; a++) {
+            Preconditions.checkArgument(!Double.isNaN(costs[a]), "Cost of pair " + a + " is NaN");
+
+            if (Double.isFinite(costs[a]) && costs[a] <= maximumCost) {
+                keptRequests[count] = pairRequests[a];
+                keptVehicles[count] = pairVehicles[a];
+                keptCosts[count++] = costs[a];
+            }
+        }
+
+        pairRequests = Arrays.copyOf(keptRequests, count);
+        pairVehicles = Arrays.copyOf(keptVehicles, count);
+        costs = Arrays.copyOf(keptCosts, count);
+
+        double unassignedCost = query.unassignedCost != null ? query.unassignedCost
+                : findUnassignedCost(costs, requests);
+
+        int[] assignment = solveComponents(requests, vehicles, pairRequests, pairVehicles, costs, unassignedCost);
+
+        // the cheapest one counts if a pair is given several times
+        double[] assignedCosts = new double[requests];
+        Arrays.fill(assignedCosts, Double.POSITIVE_INFINITY);
+
+        for (int a = 0; a < costs.length; a++) {
+            if (assignment[pairRequests[a]] == pairVehicles[a]) {
+                assignedCosts[pairRequests[a]] = Math.min(assignedCosts[pairRequests[a]], costs[a]);
+            }
+        }
+
+        MatchResponse response = new MatchResponse();
+        response.assignment = assignment;
+
+        for (int i = 0; i < requests; i++) {
+            if (assignment[i] >= 0) {
+                response.cost += assignedCosts[i];
+            }
+        }
+
+        return response;
+    }
+
+    /**
+     * Large enough that assigning one more request always outweighs the cost
+     * differences of all other pairs.
+     */
+    static private double findUnassignedCost(double[] costs, int requests) {
+        double minimum = 0.0;
+        double maximum = 0.0;
+
+        for (double cost : costs) {
+            minimum = Math.min(minimum, cost);
+            maximum = Math.max(maximum, cost);
+        }
+
+        return maximum + requests * (maximum - minimum) + 1.0;
+    }
+
+    private double[] calculateTravelTimes(MatchQuery query, int[] pairRequests, int[] pairVehicles, double now,
+            IdEncoder ids) {
+        Preconditions.checkArgument(query.requestLinks != null && query.vehicleLinks != null,
+                "Links are required to calculate the costs");
+
+        Link[] requestLinks = new Link[query.requestLinks.size()];
+        for (int i = 0; i < requestLinks.length; i++) {
+            requestLinks[i] = ids.decodeLink(query.requestLinks.get(i));
+        }
+
+        // one search tree per distinct vehicle link
+        List<Link> origins = new ArrayList<>();
+        Map<Link, Integer> originIndices = new HashMap<>();
+        int[] vehicleOrigins = new int[query.vehicleLinks.size()];
+
+        for (int j = 0; j < vehicleOrigins.length; j++) {
+            Link link = ids.decodeLink(query.vehicleLinks.get(j));
+            Integer origin = originIndices.get(link);
+
+            if (origin == null) {
+                origin = origins.size();
+                originIndices.put(link, origin);
+                origins.add(link);
+            }
+
+            vehicleOrigins[j] = origin;
+        }
+
+        // pairs sorted by their origin
+        int[] offsets = new int[origins.size() + 1];
+        for (int a = 0; a < pairVehicles.length; a++) {
+            offsets[vehicleOrigins[pairVehicles[a]] + 1]++;
+        }
+
+        for (int o = 0; o < origins.size(); o++) {
+            offsets[o + 1] += offsets[o];
+        }
+
+        int[] sortedPairs = new int[pairVehicles.length];
+        int[] position = Arrays.copyOf(offsets, origins.size());
+
+        for (int a = 0; a < pairVehicles.length; a++) {
+            sortedPairs[position[vehicleOrigins[pairVehicles[a]]]++] = a;
+        }
+
+        double[] costs = new double[pairRequests.length];
+        List<Callable<Void>> tasks = new ArrayList<>(origins.size());
+
+        for (int o = 0; o < origins.size(); o++) {
+            Link origin = origins.get(o);
+            int start = offsets[o];
+            int end = offsets[o + 1];
+
+            if (start == end) {
+                continue;
+            }
+
+            tasks.add(() -> {
+                List<Link> destinations = new ArrayList<>(end - start);
+                for (int k = start; k < end; k++) {
+                    destinations.add(requestLinks[pairRequests[sortedPairs[k]]]);
+                }
+
+                PathData[] tree = router.calcPathTree(origin, destinations, now);
+
+                for (int k = start; k < end; k++) {
+                    costs[sortedPairs[k]] = tree[k - start].getTravelTime();
+                }
+
+                return null;
+            });
+        }
+
+        router.runAll(tasks);
+        return costs;
+    }
+
+    private int[] solveComponents(int requests, int vehicles, int[] pairRequests, int[] pairVehicles,
+            double[] costs, double unassignedCost) {
+        // connected components over requests (0 ... requests - 1) and vehicles (requests ...)
+        int[] parents = new int[requests + vehicles];
+        for (int k = 0; k < parents.length; k++) {
+            parents[k] = k;
+        }
+
+        for (int a = 0; a < pairRequests.length; a++) {
+            int u = find(parents, pairRequests[a]);
+            int v = find(parents, requests + pairVehicles[a]);
+
+            if (u != v) {
+                parents[Math.max(u, v)] = Math.min(u, v);
+            }
+        }
+
+        // local positions within the components
+        int[] components = new int[parents.length];
+        int[] localIndices = new int[parents.length];
+        List<int[]> sizes = new ArrayList<>(); // requests and vehicles per component
+        int[] componentIndex = new int[parents.length];
+        Arrays.fill(componentIndex, -1);
+
+        for (int k = 0; k < parents.length; k++) {
+            int root = find(parents, k);
+
+            if (componentIndex[root] < 0) {
+                componentIndex[root] = sizes.size();
+                sizes.add(new int[2]);
+            }
+
+            components[k] = componentIndex[root];
+            localIndices[k] = sizes.get(components[k])[k < requests ? 0 : 1]++;
+        }
+
+        int[] arcCounts = new int[sizes.size()];
+        for (int a = 0; a < pairRequests.length; a++) {
+            arcCounts[components[pairRequests[a]]]++;
+        }
+
+        int[][] componentRows = new int[sizes.size()][];
+        int[][] componentColumns = new int[sizes.size()][];
+        double[][] componentCosts = new double[sizes.size()][];
+
+        for (int c = 0; c < sizes.size(); c++) {
+            componentRows[c] = new int[arcCounts[c]];
+            componentColumns[c] = new int[arcCounts[c]];
+            componentCosts[c] = new double[arcCounts[c]];
+            arcCounts[c] = 0;
+        }
+
+        for (int a = 0; a < pairRequests.length; a++) {
+            int c = components[pairRequests[a]];
+            componentRows[c][arcCounts[c]] = localIndices[pairRequests[a]];
+            componentColumns[c][arcCounts[c]] = localIndices[requests + pairVehicles[a]];
+            componentCosts[c][arcCounts[c]++] = costs[a];
+        }
+
+        // components without pairs are not assigned anyway
+        List<Integer> solved = new ArrayList<>();
+        List<Callable<int[]>> tasks = new ArrayList<>();
+
+        for (int c = 0; c < sizes.size(); c++) {
+            if (arcCounts[c] == 0) {
+                continue;
+            }
+
+            int component = c;
+            solved.add(component);
+
+            tasks.add(() -> MatchingSolver.solve(sizes.get(component)[0], sizes.get(component)[1],
+                    componentRows[component], componentColumns[component], componentCosts[component],
+                    unassignedCost));
+        }
+
+        int[][] solutions = new int[sizes.size()][];
+        List<int[]> results = router.runAll(tasks);
+
+        for (int k = 0; k < solved.size(); k++) {
+            solutions[solved.get(k)] = results.get(k);
+        }
+
+        // translate the local positions back
+        int[][] componentVehicles = new int[sizes.size()][];
+        for (int c = 0; c < sizes.size(); c++) {
+            componentVehicles[c] = new int[sizes.get(c)[1]];
+        }
+
+        for (int j = 0; j < vehicles; j++) {
+            componentVehicles[components[requests + j]][localIndices[requests + j]] = j;
+        }
+
+        int[] assignment = new int[requests];
+        for (int i = 0; i < requests; i++) {
+            int[] solution = solutions[components[i]];
+            int local = solution == null ? -1 : solution[localIndices[i]];
+            assignment[i] = local < 0 ? -1 : componentVehicles[components[i]][local];
+        }
+
+        return assignment;
+    }
+
+    static private int find(int[] parents, int k) {
+        while (parents[k] != k) {
+            parents[k] = parents[parents[k]];
+            k = parents[k];
+        }
+
+        return k;
+    }
+}
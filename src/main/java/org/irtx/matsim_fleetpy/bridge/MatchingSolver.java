@@ -0,0 +1,238 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.Arrays;
+
+/**
+ * Minimum cost assignment of rows to columns on a sparse bipartite graph by
+ * successive shortest augmenting paths (a sparse variant of the Hungarian
+ * method). Every row has a private fallback with the unassigned cost, so all
+ * rows are assigned in the augmented problem and the result is exact: with a
+ * large unassigned cost, first the number of pairs is maximized and then the
+ * cost among them is minimized.
+ */
+class MatchingSolver {
+    private MatchingSolver() {
+    }
+
+    /**
+     * Binary heap of the labeled columns by their distances. Columns are moved up
+     * when their distance decreases, so relaxing an arc does not allocate.
+     */
+    static private class ColumnHeap {
+        private final double[] distances;
+        private final int[] columns;
+        private final int[] positions;
+        private int size = 0;
+
+        ColumnHeap(double[] distances) {
+            this.distances = distances;
+            this.columns = new int[distances.length];
+            this.positions = new int[distances.length];
+            Arrays.fill(positions, -1);
+        }
+
+        void clear() {
+            for (int k = 0; k < size; k++) {
+                positions[columns[k]] = -1;
+            }
+
+            size = 0;
+        }
+
+        /**
+         * Adds the column, or moves it up after its distance has decreased.
+         */
+        void update(int column) {
+            int k = positions[column];
+
+            if (k < 0) {
+                k = size++;
+            }
+
+            double distance = distances[column];
+
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+
+                if (distances[columns[parent]] <= distance) {
+                    break;
+                }
+
+                place(columns[parent], k);
+                k = parent;
+            }
+
+            place(column, k);
+        }
+
+        int poll() {
+            int first = columns[0];
+            positions[first] = -1;
+
+            int column = columns[--size];
+            if (size == 0) {
+                return first;
+            }
+
+            double distance = distances[column];
+            int k = 0;
+
+            while (true) {
+                int child = 2 * k + 1;
+
+                if (child >= size) {
+                    break;
+                }
+
+                if (child + 1 < size && distances[columns[child + 1]] < distances[columns[child]]) {
+                    child++;
+                }
+
+                if (distances[columns[child]] >= distance) {
+                    break;
+                }
+
+                place(columns[child], k);
+                k = child;
+            }
+
+            place(column, k);
+            return first;
+        }
+
+        private void place(int column, int k) {
+            columns[k] = column;
+            positions[column] = k;
+        }
+    }
+
+    /**
+     * Returns the assigned column per row, or -1 if the row is not assigned.
+     */
+    static int[] solve(int rows, int columns, int[] arcRows, int[] arcColumns, double[] costs,
+            double unassignedCost) {
+        // arcs by row, including the fallback column (columns + row) of each row
+        int[] offsets = new int[rows + 1];
+        for (int arcRow : arcRows) {
+            offsets[arcRow + 1]++;
+        }
+
+        for (int i = 0; i < rows; i++) {
+            offsets[i + 1] += offsets[i] + 1;
+        }
+
+        int[] targets = new int[offsets[rows]];
+        double[] weights = new double[offsets[rows]];
+        int[] position = Arrays.copyOf(offsets, rows);
+
+        for (int a = 0; a < arcRows.length; a++) {
+            targets[position[arcRows[a]]] = arcColumns[a];
+            weights[position[arcRows[a]]++] = costs[a];
+        }
+
+        for (int i = 0; i < rows; i++) {
+            targets[position[i]] = columns + i;
+            weights[position[i]] = unassignedCost;
+        }
+
+        int totalColumns = columns + rows;
+
+        double[] potentials = new double[totalColumns];
+        int[] columnRows = new int[totalColumns];
+        int[] rowColumns = new int[rows];
+        double[] rowCosts = new double[rows];
+
+        Arrays.fill(columnRows, -1);
+        Arrays.fill(rowColumns, -1);
+
+        double[] distances = new double[totalColumns];
+        int[] predecessors = new int[totalColumns];
+        double[] predecessorCosts = new double[totalColumns];
+
+        // stamps avoid clearing the labels for every row
+        int[] labeled = new int[totalColumns];
+        int[] scanned = new int[totalColumns];
+        int[] scannedColumns = new int[totalColumns];
+
+        ColumnHeap heap = new ColumnHeap(distances);
+
+        for (int source = 0; source < rows; source++) {
+            int stamp = source + 1;
+            int scannedCount = 0;
+            heap.clear();
+
+            for (int a = offsets[source]; a < offsets[source + 1]; a++) {
+                relax(targets[a], weights[a] - potentials[targets[a]], source, weights[a], stamp, distances,
+                        predecessors, predecessorCosts, labeled, scanned, heap);
+            }
+
+            int target = -1;
+
+            while (target < 0) {
+                // the fallback column of the source is always free, so the heap does not run empty
+                int column = heap.poll();
+
+                scanned[column] = stamp;
+                scannedColumns[scannedCount++] = column;
+
+                int row = columnRows[column];
+
+                if (row < 0) {
+                    target = column;
+                    break;
+                }
+
+                // continue along the assigned row, whose reduced costs are non-negative
+                double offset = distances[column] - (rowCosts[row] - potentials[column]);
+
+                for (int a = offsets[row]; a < offsets[row + 1]; a++) {
+                    relax(targets[a], offset + weights[a] - potentials[targets[a]], row, weights[a], stamp,
+                            distances, predecessors, predecessorCosts, labeled, scanned, heap);
+                }
+            }
+
+            double shortest = distances[target];
+            for (int k = 0; k < scannedCount; k++) {
+                int column = scannedColumns[k];
+                potentials[column] += distances[column] - shortest;
+            }
+
+            // augment along the path back to the source
+            int column = target;
+
+            while (column >= 0) {
+                int row = predecessors[column];
+                int previous = rowColumns[row];
+
+                rowColumns[row] = column;
+                rowCosts[row] = predecessorCosts[column];
+                columnRows[column] = row;
+
+                column = row == source ? -1 : previous;
+            }
+        }
+
+        for (int i = 0; i < rows; i++) {
+            if (rowColumns[i] >= columns) {
+                rowColumns[i] = -1;
+            }
+        }
+
+        return rowColumns;
+    }
+
+    static private void relax(int column, double distance, int row, double cost, int stamp, double[] distances,
+            int[] predecessors, double[] predecessorCosts, int[] labeled, int[] scanned, ColumnHeap heap) {
+        if (scanned[column] == stamp) {
+            return;
+        }
+
+        if (labeled[column] != stamp || distance < distances[column]) {
+            labeled[column] = stamp;
+            distances[column] = distance;
+            predecessors[column] = row;
+            predecessorCosts[column] = cost;
+            heap.update(column);
+        }
+    }
+}
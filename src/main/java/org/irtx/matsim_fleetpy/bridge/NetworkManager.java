@@ -0,0 +1,140 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.irtx.matsim_fleetpy.bridge.communication.QueryHandler;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NetworkQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NetworkResponse;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Exports the modal network as packed columns in compressed sparse row layout,
+ * indexed like the links and nodes of the indexed mode. The columns are built
+ * once since the network does not change during the simulation.
+ */
+public class NetworkManager implements QueryHandler<NetworkQuery> {
+    private final Network network;
+
+    private Node[] nodes;
+    private Link[] links;
+
+    private double[] nodeCoordinates;
+    private int[] fromNodes;
+    private int[] toNodes;
+    private double[] lengths;
+    private double[] freespeeds;
+    private double[] lanes;
+
+    private int[] outgoingOffsets;
+    private int[] outgoingLinks;
+
+    public NetworkManager(Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public NetworkResponse handle(NetworkQuery query, double now, IdEncoder ids) {
+        Preconditions.checkArgument(PackedArrays.isPacked(query.format), "Unknown format: " + query.format);
+
+        synchronized (this) {
+            if (nodes == null) {
+                buildColumns();
+            }
+        }
+
+        NetworkResponse response = new NetworkResponse();
+        response.nodeCount = nodes.length;
+        response.linkCount = links.length;
+
+        response.nodeCoordinates = PackedArrays.pack(nodeCoordinates, "float64");
+        response.fromNodes = PackedArrays.packInt32(fromNodes);
+        response.toNodes = PackedArrays.packInt32(toNodes);
+        response.lengths = PackedArrays.pack(lengths, query.format);
+        response.freespeeds = PackedArrays.pack(freespeeds, query.format);
+        response.lanes = PackedArrays.pack(lanes, query.format);
+
+        response.outgoingOffsets = PackedArrays.packInt32(outgoingOffsets);
+        response.outgoingLinks = PackedArrays.packInt32(outgoingLinks);
+
+        if (query.withIds) {
+            response.nodes = new ArrayList<>(nodes.length);
+            for (Node node : nodes) {
+                response.nodes.add(node == null ? null : node.getId().toString());
+            }
+
+            response.links = new ArrayList<>(links.length);
+            for (Link link : links) {
+                response.links.add(link == null ? null : link.getId().toString());
+            }
+        }
+
+        return response;
+    }
+
+    private void buildColumns() {
+        nodes = new Node[Id.getNumberOfIds(Node.class)];
+        for (Node node : network.getNodes().values()) {
+            nodes[node.getId().index()] = node;
+        }
+
+        links = new Link[Id.getNumberOfIds(Link.class)];
+        for (Link link : network.getLinks().values()) {
+            links[link.getId().index()] = link;
+        }
+
+        nodeCoordinates = new double[2 * nodes.length];
+        Arrays.fill(nodeCoordinates, Double.NaN);
+
+        for (Node node : network.getNodes().values()) {
+            nodeCoordinates[2 * node.getId().index()] = node.getCoord().getX();
+            nodeCoordinates[2 * node.getId().index() + 1] = node.getCoord().getY();
+        }
+
+        fromNodes = new int[links.length];
+        toNodes = new int[links.length];
+        lengths = new double[links.length];
+        freespeeds = new double[links.length];
+        lanes = new double[links.length];
+
+        Arrays.fill(fromNodes, -1);
+        Arrays.fill(toNodes, -1);
+        Arrays.fill(lengths, Double.NaN);
+        Arrays.fill(freespeeds, Double.NaN);
+        Arrays.fill(lanes, Double.NaN);
+
+        // counting sort of the links by their from node
+        outgoingOffsets = new int[nodes.length + 1];
+
+        for (Link link : network.getLinks().values()) {
+            int index = link.getId().index();
+
+            fromNodes[index] = link.getFromNode().getId().index();
+            toNodes[index] = link.getToNode().getId().index();
+            lengths[index] = link.getLength();
+            freespeeds[index] = link.getFreespeed();
+            lanes[index] = link.getNumberOfLanes();
+
+            outgoingOffsets[fromNodes[index] + 1]++;
+        }
+
+        for (int i = 0; i < nodes.length; i++) {
+            outgoingOffsets[i + 1] += outgoingOffsets[i];
+        }
+
+        outgoingLinks = new int[network.getLinks().size()];
+        int[] position = Arrays.copyOf(outgoingOffsets, nodes.length);
+
+        for (int k = 0; k < links.length; k++) {
+            if (links[k] != null) {
+                outgoingLinks[position[fromNodes[k]]++] = k;
+            }
+        }
+    }
+}
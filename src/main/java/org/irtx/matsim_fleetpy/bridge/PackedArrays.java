@@ -0,0 +1,59 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class PackedArrays {
+    private PackedArrays() {
+    }
+
+    static public boolean isPacked(String format) {
+        return format.equals("float32") || format.equals("float64");
+    }
+
+    static public byte[] pack(double[] values, String format) {
+        switch (format) {
+            case "float32": {
+                ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+                for (double value : values) {
+                    buffer.putFloat((float) value);
+                }
+
+                return buffer.array();
+            }
+            case "float64": {
+                ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+                for (double value : values) {
+                    buffer.putDouble(value);
+                }
+
+                return buffer.array();
+            }
+            default:
+                throw new IllegalStateException("Unknown packed format: " + format);
+        }
+    }
+
+    static public byte[] packInt32(int[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+
+        return buffer.array();
+    }
+
+    static public byte[] pack(double[][] values, String format) {
+        int columns = values.length > 0 ? values[0].length : 0;
+        double[] flat = new double[values.length * columns];
+
+        for (int i = 0; i < values.length; i++) {
+            System.arraycopy(values[i], 0, flat, i * columns, columns);
+        }
+
+        return pack(flat, format);
+    }
+}
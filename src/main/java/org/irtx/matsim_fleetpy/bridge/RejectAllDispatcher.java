@@ -0,0 +1,30 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import org.irtx.matsim_fleetpy.bridge.communication.Dispatcher;
+import org.irtx.matsim_fleetpy.bridge.communication.QueryContext;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Assignment;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Iteration;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.State;
+
+/**
+ * In-process dispatcher that rejects all requests as soon as they are submitted
+ * and never moves a vehicle. It is mostly useful to measure the overhead of the
+ * bridge itself.
+ */
+public class RejectAllDispatcher implements Dispatcher {
+    @Override
+    public Assignment startIteration(Iteration iteration, QueryContext queries) {
+        return new Assignment();
+    }
+
+    @Override
+    public Assignment update(State state, QueryContext queries) {
+        Assignment assignment = new Assignment();
+
+        for (State.Request request : state.submitted) {
+            assignment.rejections.add(request.id);
+        }
+
+        return assignment;
+    }
+}
@@ -0,0 +1,115 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.irtx.matsim_fleetpy.bridge.communication.QueryHandler;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.RouteQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.RouteResponse;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.path.OneToManyPathSearch.PathData;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+
+public class RouteManager implements QueryHandler<RouteQuery> {
+    private final BridgeRouter router;
+
+    public RouteManager(BridgeRouter router) {
+        this.router = router;
+    }
+
+    private record Row(double[] travelTimes, double[] distances, List<List<String>> paths) {
+    }
+
+    @Override
+    public RouteResponse handle(RouteQuery query, double now, IdEncoder ids) {
+        double departureTime = query.departureTime == null ? now : query.departureTime;
+
+        List<Link> origins = new ArrayList<>(query.origins.size());
+        for (String rawLink : query.origins) {
+            origins.add(ids.decodeLink(rawLink));
+        }
+
+        List<Link> destinations = new ArrayList<>(query.destinations.size());
+        for (String rawLink : query.destinations) {
+            destinations.add(ids.decodeLink(rawLink));
+        }
+
+        // one search tree per origin
+        List<Callable<Row>> tasks = new ArrayList<>(origins.size());
+        for (Link origin : origins) {
+            tasks.add(() -> {
+                double[] travelTimes = new double[destinations.size()];
+                double[] distances = new double[destinations.size()];
+                List<List<String>> paths = query.paths ? new ArrayList<>(destinations.size()) : null;
+
+                PathData[] tree = router.calcPathTree(origin, destinations, departureTime);
+
+                for (int j = 0; j < destinations.size(); j++) {
+                    Link destination = destinations.get(j);
+                    travelTimes[j] = tree[j].getTravelTime();
+
+                    // the vehicle starts at the end of the origin link
+                    Path path = destination == origin ? null : tree[j].getPath();
+
+                    if (path != null) {
+                        for (Link link : path.links) {
+                            distances[j] += link.getLength();
+                        }
+
+                        distances[j] += destination.getLength();
+                    }
+
+                    if (paths != null) {
+                        List<String> links = new ArrayList<>(path == null ? 1 : path.links.size() + 2);
+                        links.add(ids.encode(origin.getId()));
+
+                        if (path != null) {
+                            for (Link link : path.links) {
+                                links.add(ids.encode(link.getId()));
+                            }
+
+                            links.add(ids.encode(destination.getId()));
+                        }
+
+                        paths.add(links);
+                    }
+                }
+
+                return new Row(travelTimes, distances, paths);
+            });
+        }
+
+        List<Row> rows = router.runAll(tasks);
+
+        double[][] travelTimes = new double[rows.size()][];
+        double[][] distances = new double[rows.size()][];
+
+        RouteResponse response = new RouteResponse();
+
+        if (query.paths) {
+            response.paths = new ArrayList<>(origins.size() * destinations.size());
+        }
+
+        for (int i = 0; i < rows.size(); i++) {
+            travelTimes[i] = rows.get(i).travelTimes();
+            distances[i] = rows.get(i).distances();
+
+            if (query.paths) {
+                response.paths.addAll(rows.get(i).paths());
+            }
+        }
+
+        if (PackedArrays.isPacked(query.format)) {
+            response.packedTravelTimes = PackedArrays.pack(travelTimes, query.format);
+            response.packedDistances = PackedArrays.pack(distances, query.format);
+        } else if (query.format.equals("list")) {
+            response.travelTimes = travelTimes;
+            response.distances = distances;
+        } else {
+            throw new IllegalStateException("Unknown route format: " + query.format);
+        }
+
+        return response;
+    }
+}
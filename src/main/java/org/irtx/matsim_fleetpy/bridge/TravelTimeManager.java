@@ -1,39 +1,97 @@
 package org.irtx.matsim_fleetpy.bridge;
 
+import java.util.ArrayList;
+
+import org.irtx.matsim_fleetpy.bridge.communication.QueryHandler;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.TravelTimeQuery;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.TravelTimeResponse;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.IdSet;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationStartsListener;
 import org.matsim.core.router.util.TravelTime;
 
-public class TravelTimeManager {
+public class TravelTimeManager implements QueryHandler<TravelTimeQuery>, IterationStartsListener {
     private final Network network;
     private final TravelTime travelTime;
 
+    // all links by index, fixed at the start of the iteration
+    private Link[] linkOrder = new Link[0];
+
     public TravelTimeManager(Network network, TravelTime travelTime) {
         this.network = network;
         this.travelTime = travelTime;
     }
 
-    public TravelTimeResponse query(TravelTimeQuery query, double now) {
-        IdSet<Link> links = new IdSet<>(Link.class);
+    @Override
+    public void notifyIterationStarts(IterationStartsEvent event) {
+        linkOrder = new Link[Id.getNumberOfIds(Link.class)];
 
-        for (String rawLink : query.links) {
-            links.add(Id.createLinkId(rawLink));
+        for (Link link : network.getLinks().values()) {
+            linkOrder[link.getId().index()] = link;
         }
+    }
 
-        if (links.size() == 0) {
-            links.addAll(network.getLinks().keySet());
+    @Override
+    public TravelTimeResponse handle(TravelTimeQuery query, double now, IdEncoder ids) {
+        if (query.format.equals("map")) {
+            return queryMap(query, now, ids);
+        } else {
+            return queryPacked(query, now, ids);
         }
+    }
 
+    private TravelTimeResponse queryMap(TravelTimeQuery query, double now, IdEncoder ids) {
         TravelTimeResponse response = new TravelTimeResponse();
 
-        for (Id<Link> linkId : links) {
-            Link link = network.getLinks().get(linkId);
-            double value = travelTime.getLinkTravelTime(link, now, null, null);
-            response.travelTimes.put(linkId.toString(), value);
+        if (query.links.size() == 0) {
+            for (Link link : network.getLinks().values()) {
+                double value = travelTime.getLinkTravelTime(link, now, null, null);
+                response.travelTimes.put(ids.encode(link.getId()), value);
+            }
+        } else {
+            for (String rawLink : query.links) {
+                Link link = ids.decodeLink(rawLink);
+                double value = travelTime.getLinkTravelTime(link, now, null, null);
+                response.travelTimes.put(ids.encode(link.getId()), value);
+            }
+        }
+
+        return response;
+    }
+
+    private TravelTimeResponse queryPacked(TravelTimeQuery query, double now, IdEncoder ids) {
+        final Link[] links;
+
+        if (query.links.size() == 0) {
+            links = linkOrder;
+        } else {
+            links = new Link[query.links.size()];
+
+            int k = 0;
+            for (String rawLink : query.links) {
+                links[k++] = ids.decodeLink(rawLink);
+            }
+        }
+
+        double[] values = new double[links.length];
+
+        for (int k = 0; k < links.length; k++) {
+            // links that are not part of the network are NaN
+            values[k] = links[k] == null ? Double.NaN : travelTime.getLinkTravelTime(links[k], now, null, null);
+        }
+
+        TravelTimeResponse response = new TravelTimeResponse();
+        response.travelTimes = null;
+        response.packed = PackedArrays.pack(values, query.format);
+
+        if (query.withLinks) {
+            response.links = new ArrayList<>(links.length);
+
+            for (Link link : links) {
+                response.links.add(link == null ? null : link.getId().toString());
+            }
         }
 
         return response;
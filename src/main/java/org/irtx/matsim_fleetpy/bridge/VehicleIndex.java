@@ -0,0 +1,284 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.irtx.matsim_fleetpy.bridge.communication.QueryHandler;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NearestVehiclesQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NearestVehiclesResponse;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationStartsListener;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Uniform grid over the coordinates of the diverge links of all vehicles. The
+ * optimizer moves a vehicle whenever it rebuilds its state, and nearest vehicle
+ * queries search the grid in rings of cells around each origin. The cells are
+ * stored densely over the area that the vehicles have visited, which is grown
+ * when a vehicle leaves it, and each entry knows its position in its cell, so
+ * moving a vehicle takes constant time.
+ */
+public class VehicleIndex implements QueryHandler<NearestVehiclesQuery>, IterationStartsListener {
+    static public final double DEFAULT_CELL_SIZE = 1000.0;
+
+    private final double cellSize;
+
+    private final IdMap<DvrpVehicle, Entry> entries = new IdMap<>(DvrpVehicle.class);
+
+    // row-major, from the first column and row of the grid
+    private final List<List<Entry>> grid = new ArrayList<>();
+    private int gridColumn;
+    private int gridRow;
+    private int gridColumns = 0;
+    private int gridRows = 0;
+
+    private int minColumn = Integer.MAX_VALUE;
+    private int maxColumn = Integer.MIN_VALUE;
+    private int minRow = Integer.MAX_VALUE;
+    private int maxRow = Integer.MIN_VALUE;
+
+    static private class Entry {
+        DvrpVehicle vehicle;
+        double x;
+        double y;
+        String state;
+
+        int column;
+        int row;
+        int position; // in the cell
+    }
+
+    static private final int GRID_MARGIN = 8; // cells added around the grid when it grows
+
+    private record Candidate(Entry entry, double distance) {
+    }
+
+    // farthest first, ties broken by vehicle index
+    static private final Comparator<Candidate> FARTHEST_FIRST = Comparator.comparingDouble(Candidate::distance)
+            .thenComparingInt(candidate -> candidate.entry().vehicle.getId().index()).reversed();
+
+    public VehicleIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    @Override
+    public void notifyIterationStarts(IterationStartsEvent event) {
+        entries.clear();
+        grid.clear();
+        gridColumns = gridRows = 0;
+
+        minColumn = minRow = Integer.MAX_VALUE;
+        maxColumn = maxRow = Integer.MIN_VALUE;
+    }
+
+    public void update(DvrpVehicle vehicle, Link divergeLink, String state) {
+        Entry entry = entries.get(vehicle.getId());
+
+        if (entry == null) {
+            entry = new Entry();
+            entry.vehicle = vehicle;
+            entries.put(vehicle.getId(), entry);
+        } else {
+            // swap with the last entry of the cell
+            List<Entry> cellEntries = getCell(entry.column, entry.row);
+            Entry last = cellEntries.remove(cellEntries.size() - 1);
+
+            if (last != entry) {
+                cellEntries.set(entry.position, last);
+                last.position = entry.position;
+            }
+        }
+
+        entry.x = divergeLink.getCoord().getX();
+        entry.y = divergeLink.getCoord().getY();
+        entry.state = state;
+
+        int column = column(entry.x);
+        int row = row(entry.y);
+        entry.column = column;
+        entry.row = row;
+
+        ensureGrid(column, row);
+        int index = getCellIndex(column, row);
+
+        List<Entry> cellEntries = grid.get(index);
+        if (cellEntries == null) {
+            cellEntries = new ArrayList<>();
+            grid.set(index, cellEntries);
+        }
+
+        entry.position = cellEntries.size();
+        cellEntries.add(entry);
+
+        minColumn = Math.min(minColumn, column);
+        maxColumn = Math.max(maxColumn, column);
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+    }
+
+    @Override
+    public NearestVehiclesResponse handle(NearestVehiclesQuery query, double now, IdEncoder ids) {
+        Preconditions.checkArgument(query.k > 0, "k must be positive");
+        Set<String> states = query.states == null ? null : new HashSet<>(query.states);
+
+        NearestVehiclesResponse response = new NearestVehiclesResponse();
+        response.vehicles = new ArrayList<>(query.origins.size());
+        response.distances = new ArrayList<>(query.origins.size());
+
+        for (String rawOrigin : query.origins) {
+            Link origin = ids.decodeLink(rawOrigin);
+            List<Candidate> nearest = findNearest(origin.getCoord().getX(), origin.getCoord().getY(), query.k,
+                    states);
+
+            List<String> vehicles = new ArrayList<>(nearest.size());
+            List<Double> distances = new ArrayList<>(nearest.size());
+
+            for (Candidate candidate : nearest) {
+                vehicles.add(ids.encode(candidate.entry().vehicle.getId()));
+                distances.add(candidate.distance());
+            }
+
+            response.vehicles.add(vehicles);
+            response.distances.add(distances);
+        }
+
+        return response;
+    }
+
+    private List<Candidate> findNearest(double x, double y, int k, Set<String> states) {
+        PriorityQueue<Candidate> best = new PriorityQueue<>(k + 1, FARTHEST_FIRST);
+
+        if (!entries.isEmpty()) {
+            int column = column(x);
+            int row = row(y);
+
+            // rings beyond this one cannot contain any vehicle
+            int maxRing = Math.max(Math.max(Math.abs(column - minColumn), Math.abs(maxColumn - column)),
+                    Math.max(Math.abs(row - minRow), Math.abs(maxRow - row)));
+
+            for (int ring = 0; ring <= maxRing; ring++) {
+                // everything in this ring is at least (ring - 1) cells away
+                if (best.size() == k && best.peek().distance() < (ring - 1) * cellSize) {
+                    break;
+                }
+
+                if (ring == 0) {
+                    visitCell(getCell(column, row), x, y, k, states, best);
+                    continue;
+                }
+
+                for (int i = column - ring; i <= column + ring; i++) {
+                    visitCell(getCell(i, row - ring), x, y, k, states, best);
+                    visitCell(getCell(i, row + ring), x, y, k, states, best);
+                }
+
+                for (int j = row - ring + 1; j < row + ring; j++) {
+                    visitCell(getCell(column - ring, j), x, y, k, states, best);
+                    visitCell(getCell(column + ring, j), x, y, k, states, best);
+                }
+            }
+        }
+
+        List<Candidate> result = new ArrayList<>(best);
+        result.sort(FARTHEST_FIRST.reversed());
+        return result;
+    }
+
+    private void visitCell(List<Entry> cellEntries, double x, double y, int k, Set<String> states,
+            PriorityQueue<Candidate> best) {
+        if (cellEntries == null) {
+            return;
+        }
+
+        for (Entry entry : cellEntries) {
+            if (states != null && !states.contains(entry.state)) {
+                continue;
+            }
+
+            double dx = entry.x - x;
+            double dy = entry.y - y;
+            Candidate candidate = new Candidate(entry, Math.sqrt(dx * dx + dy * dy));
+
+            if (best.size() < k) {
+                best.add(candidate);
+            } else if (FARTHEST_FIRST.compare(candidate, best.peek()) > 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+    }
+
+    private int column(double x) {
+        return (int) Math.floor(x / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor(y / cellSize);
+    }
+
+    /**
+     * Returns null for empty cells and cells outside of the grid.
+     */
+    private List<Entry> getCell(int column, int row) {
+        int index = getCellIndex(column, row);
+        return index < 0 ? null : grid.get(index);
+    }
+
+    /**
+     * Grows the grid with a margin so that it contains the cell.
+     */
+    private void ensureGrid(int column, int row) {
+        if (getCellIndex(column, row) >= 0) {
+            return;
+        }
+
+        int newColumn = gridColumns == 0 ? column - GRID_MARGIN : Math.min(gridColumn, column - GRID_MARGIN);
+        int newRow = gridRows == 0 ? row - GRID_MARGIN : Math.min(gridRow, row - GRID_MARGIN);
+        int newEndColumn = gridColumns == 0 ? column + GRID_MARGIN + 1
+                : Math.max(gridColumn + gridColumns, column + GRID_MARGIN + 1);
+        int newEndRow = gridRows == 0 ? row + GRID_MARGIN + 1 : Math.max(gridRow + gridRows, row + GRID_MARGIN + 1);
+
+        int newColumns = newEndColumn - newColumn;
+        int newRows = newEndRow - newRow;
+
+        List<List<Entry>> newGrid = new ArrayList<>(newColumns * newRows);
+        for (int k = 0; k < newColumns * newRows; k++) {
+            newGrid.add(null);
+        }
+
+        for (int j = 0; j < gridRows; j++) {
+            for (int i = 0; i < gridColumns; i++) {
+                newGrid.set((gridRow + j - newRow) * newColumns + gridColumn + i - newColumn,
+                        grid.get(j * gridColumns + i));
+            }
+        }
+
+        grid.clear();
+        grid.addAll(newGrid);
+
+        gridColumn = newColumn;
+        gridRow = newRow;
+        gridColumns = newColumns;
+        gridRows = newRows;
+    }
+
+    /**
+     * Returns -1 for cells outside of the grid.
+     */
+    private int getCellIndex(int column, int row) {
+        if (column < gridColumn || column >= gridColumn + gridColumns || row < gridRow
+                || row >= gridRow + gridRows) {
+            return -1;
+        }
+
+        return (row - gridRow) * gridColumns + column - gridColumn;
+    }
+}
@@ -0,0 +1,148 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.irtx.matsim_fleetpy.bridge.communication.QueryHandler;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.ZoneQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.ZoneResponse;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.common.zones.Zone;
+import org.matsim.contrib.common.zones.ZoneSystem;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Exposes the zone system of the DVRP travel time matrix. Each zone is
+ * represented by its node closest to the zone centroid, so looking up the
+ * free-speed matrix for these nodes yields the zonal values. Zones and tables
+ * are built on the first query since they do not change.
+ */
+public class ZoneManager implements QueryHandler<ZoneQuery> {
+    private final Network network;
+    private final TravelTimeMatrix travelTimeMatrix;
+    private final ZoneSystem zoneSystem;
+    private final double cellSize;
+
+    private List<String> zoneIds;
+    private double[] centroids;
+    private Link[] links; // by index
+    private int[] linkZones;
+    private double[] travelTimes;
+
+    public ZoneManager(Network network, TravelTimeMatrix travelTimeMatrix, ZoneSystem zoneSystem, double cellSize) {
+        this.network = network;
+        this.travelTimeMatrix = travelTimeMatrix;
+        this.zoneSystem = zoneSystem;
+        this.cellSize = cellSize;
+    }
+
+    @Override
+    public ZoneResponse handle(ZoneQuery query, double now, IdEncoder ids) {
+        Preconditions.checkState(cellSize > 0.0, "No square grid configured for the DVRP travel time matrix");
+        Preconditions.checkArgument(PackedArrays.isPacked(query.format), "Unknown format: " + query.format);
+
+        synchronized (this) {
+            if (travelTimes == null) {
+                buildZones();
+            }
+        }
+
+        ZoneResponse response = new ZoneResponse();
+        response.cellSize = cellSize;
+        response.zones = zoneIds;
+        response.centroids = PackedArrays.pack(centroids, "float64");
+        response.linkZones = PackedArrays.packInt32(linkZones);
+        response.travelTimes = PackedArrays.pack(travelTimes, query.format);
+
+        if (query.withLinks) {
+            response.links = new ArrayList<>(links.length);
+
+            for (Link link : links) {
+                response.links.add(link == null ? null : link.getId().toString());
+            }
+        }
+
+        return response;
+    }
+
+    private void buildZones() {
+        Map<Id<Zone>, Integer> zoneIndices = new HashMap<>();
+        List<Zone> zones = new ArrayList<>();
+        List<Node> representatives = new ArrayList<>();
+
+        // zone index per node index, -1 if the node is not covered
+        int[] nodeZones = new int[Id.getNumberOfIds(Node.class)];
+        Arrays.fill(nodeZones, -1);
+
+        for (Node node : network.getNodes().values()) {
+            Optional<Zone> nodeZone = zoneSystem.getZoneForNodeId(node.getId());
+
+            if (nodeZone.isEmpty()) {
+                continue;
+            }
+
+            Zone zone = nodeZone.get();
+            Integer index = zoneIndices.get(zone.getId());
+
+            if (index == null) {
+                index = zones.size();
+                zoneIndices.put(zone.getId(), index);
+
+                zones.add(zone);
+                representatives.add(node);
+            } else {
+                Coord centroid = zone.getCentroid();
+                Node current = representatives.get(index);
+
+                if (CoordUtils.calcEuclideanDistance(node.getCoord(), centroid) < CoordUtils
+                        .calcEuclideanDistance(current.getCoord(), centroid)) {
+                    representatives.set(index, node);
+                }
+            }
+
+            nodeZones[node.getId().index()] = index;
+        }
+
+        int numberOfZones = zones.size();
+
+        zoneIds = new ArrayList<>(numberOfZones);
+        centroids = new double[2 * numberOfZones];
+
+        for (int i = 0; i < numberOfZones; i++) {
+            zoneIds.add(zones.get(i).getId().toString());
+            centroids[2 * i] = zones.get(i).getCentroid().getX();
+            centroids[2 * i + 1] = zones.get(i).getCentroid().getY();
+        }
+
+        // links are assigned to the zone of their end node
+        links = new Link[Id.getNumberOfIds(Link.class)];
+        linkZones = new int[links.length];
+        Arrays.fill(linkZones, -1);
+
+        for (Link link : network.getLinks().values()) {
+            links[link.getId().index()] = link;
+            linkZones[link.getId().index()] = nodeZones[link.getToNode().getId().index()];
+        }
+
+        travelTimes = new double[numberOfZones * numberOfZones];
+        for (int i = 0; i < numberOfZones; i++) {
+            Node origin = representatives.get(i);
+
+            for (int j = 0; j < numberOfZones; j++) {
+                travelTimes[i * numberOfZones + j] = travelTimeMatrix.getFreeSpeedTravelTime(origin,
+                        representatives.get(j));
+            }
+        }
+    }
+}
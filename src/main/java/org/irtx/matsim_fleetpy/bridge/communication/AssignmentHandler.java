@@ -0,0 +1,27 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.util.List;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+
+/**
+ * Receives an assignment while it is read, so that it does not need to be
+ * materialized as message objects. Each vehicle is passed before its stops, and
+ * the lists are only valid during the call.
+ */
+public interface AssignmentHandler {
+    void startAssignment();
+
+    void vehicle(DvrpVehicle vehicle);
+
+    /**
+     * The route is null if the bridge routes the stop.
+     */
+    void stop(Link link, List<String> pickup, List<String> dropoff, List<Link> route, double earliestStartTime,
+            double stopDuration, String id);
+
+    void rejection(String requestId);
+
+    void waitFor(double waitFor);
+}
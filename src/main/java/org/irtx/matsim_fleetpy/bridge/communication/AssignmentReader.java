@@ -0,0 +1,170 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.irtx.matsim_fleetpy.bridge.IdEncoder;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Verify;
+
+/**
+ * Reads assignments token by token and passes them on to a handler. The fields
+ * of the stop that is currently read are kept in reused lists. In indexed mode,
+ * links are looked up by the numbers as they are read.
+ */
+class AssignmentReader {
+    private final JsonFactory factory;
+
+    private final List<String> pickup = new ArrayList<>();
+    private final List<String> dropoff = new ArrayList<>();
+    private final List<Link> route = new ArrayList<>();
+
+    AssignmentReader(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns false if the message does not start with the assignment type, so it
+     * can be handled by the object mapper instead.
+     */
+    boolean read(byte[] payload, IdEncoder ids, AssignmentHandler handler) throws IOException {
+        try (JsonParser parser = factory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME
+                    || !parser.currentName().equals("@message")) {
+                return false;
+            }
+
+            parser.nextToken();
+
+            if (!"assignment".equals(parser.getValueAsString())) {
+                return false;
+            }
+
+            handler.startAssignment();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+
+                switch (field) {
+                    case "stops":
+                        readStops(parser, ids, handler);
+                        break;
+                    case "rejections":
+                        if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                handler.rejection(parser.getValueAsString());
+                            }
+                        }
+                        break;
+                    case "waitFor":
+                        handler.waitFor(parser.getValueAsDouble());
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown field in assignment: " + field);
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private void readStops(JsonParser parser, IdEncoder ids, AssignmentHandler handler) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            // object keys are strings, also in indexed mode
+            String rawVehicleId = parser.currentName();
+            DvrpVehicle vehicle = ids.decodeVehicle(rawVehicleId);
+            Verify.verifyNotNull(vehicle, "Unknown vehicle " + rawVehicleId);
+
+            handler.vehicle(vehicle);
+            parser.nextToken();
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                readStop(parser, ids, handler);
+            }
+        }
+    }
+
+    private void readStop(JsonParser parser, IdEncoder ids, AssignmentHandler handler) throws IOException {
+        Link link = null;
+        boolean routed = false;
+        double earliestStartTime = Double.NEGATIVE_INFINITY;
+        double stopDuration = 0.0;
+        String id = null;
+
+        pickup.clear();
+        dropoff.clear();
+        route.clear();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "link":
+                    link = readLink(parser, ids);
+                    break;
+                case "pickup":
+                    readStrings(parser, pickup);
+                    break;
+                case "dropoff":
+                    readStrings(parser, dropoff);
+                    break;
+                case "route":
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        routed = true;
+
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            route.add(readLink(parser, ids));
+                        }
+                    }
+                    break;
+                case "earliestStartTime":
+                    earliestStartTime = parser.getValueAsDouble();
+                    break;
+                case "stopDuration":
+                    stopDuration = parser.getValueAsDouble();
+                    break;
+                case "id":
+                    id = parser.getValueAsString();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown field in assignment stop: " + field);
+            }
+        }
+
+        handler.stop(link, pickup, dropoff, routed ? route : null, earliestStartTime, stopDuration, id);
+    }
+
+    static private Link readLink(JsonParser parser, IdEncoder ids) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+
+        if (ids.isIndexed() && parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return ids.getLink(parser.getIntValue());
+        }
+
+        return ids.decodeLink(parser.getValueAsString());
+    }
+
+    private void readStrings(JsonParser parser, List<String> values) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.getValueAsString());
+        }
+    }
+}
@@ -2,152 +2,485 @@ package org.irtx.matsim_fleetpy.bridge.communication;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.irtx.matsim_fleetpy.bridge.TravelTimeManager;
+import org.irtx.matsim_fleetpy.bridge.BridgeMetrics;
+import org.irtx.matsim_fleetpy.bridge.BridgeMetrics.Phase;
+import org.irtx.matsim_fleetpy.bridge.IdEncoder;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.AbstractMessage;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.Assignment;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.Finalization;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.Initialization;
 import org.irtx.matsim_fleetpy.bridge.communication.messages.Iteration;
-import org.irtx.matsim_fleetpy.bridge.communication.messages.State;
-import org.irtx.matsim_fleetpy.bridge.communication.messages.TravelTimeQuery;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.core.controler.events.IterationStartsEvent;
-import org.matsim.core.controler.events.ShutdownEvent;
-import org.matsim.core.controler.events.StartupEvent;
 import org.matsim.core.controler.listener.IterationStartsListener;
-import org.matsim.core.controler.listener.ShutdownListener;
-import org.matsim.core.controler.listener.StartupListener;
-import org.zeromq.SocketType;
-import org.zeromq.ZContext;
-import org.zeromq.ZMQ;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import com.google.common.base.Verify;
 
-public class CommunicationManager
-        implements StartupListener, ShutdownListener, IterationStartsListener {
+public class CommunicationManager implements IterationStartsListener {
     private final Logger logger = LogManager.getLogger(CommunicationManager.class);
 
-    private final int port;
+    private final String mode;
+    private final CommunicationServer server;
+    private final double configuredLatency;
+    private final BridgeMetrics metrics;
+    private final TraceRecorder recorder; // null if not recording
+    private final Dispatcher dispatcher; // null if the dispatcher is remote
 
-    private ZContext context;
-    private ZMQ.Socket socket;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper initializationMapper = new ObjectMapper();
+    private ObjectMapper mapper = initializationMapper;
+
+    private StateWriter stateWriter;
+    private AssignmentReader assignmentReader;
+    private SharedStateWriter sharedState; // null if the vehicles are sent in the state
 
     private int iteration;
     private boolean initialized = false;
+    private boolean delta = false;
+    private boolean indexed = false;
+    private double latency = 0.0;
+
+    private boolean awaitingAssignment = false;
+    private double awaitingTime;
+    private BridgeMetrics.Span waitSpan;
+    private Assignment dispatchedAssignment;
+
+    private IdEncoder ids;
+    private final Map<Class<?>, QueryHandler<?>> queryHandlers = new HashMap<>();
+    private final QueryContext queryContext = this::answerQuery;
 
-    private final TravelTimeManager travelTimeManager;
+    public CommunicationManager(String mode, CommunicationServer server, double latency, BridgeMetrics metrics,
+            TraceRecorder recorder, Dispatcher dispatcher) {
+        this.mode = mode;
+        this.server = server;
+        this.configuredLatency = latency;
+        this.metrics = metrics;
+        this.recorder = dispatcher == null ? recorder : null;
+        this.dispatcher = dispatcher;
 
-    public CommunicationManager(int port, TravelTimeManager travelTimeManager) {
-        this.port = port;
-        this.travelTimeManager = travelTimeManager;
+        server.register(this);
     }
 
-    @Override
-    public void notifyStartup(StartupEvent event) {
-        logger.info("Creating ZMQ context ...");
-        context = new ZContext();
+    public <Q extends AbstractMessage> void addQueryHandler(Class<Q> queryType, QueryHandler<Q> handler) {
+        queryHandlers.put(queryType, handler);
+    }
 
-        logger.info("Setting up ZMQ socket on port " + port + "...");
-        socket = context.createSocket(SocketType.REP);
-        socket.bind("tcp://*:" + port);
+    public String getMode() {
+        return mode;
     }
 
     @Override
     public void notifyIterationStarts(IterationStartsEvent event) {
         this.iteration = event.getIteration();
+
+        if (recorder != null) {
+            recorder.startIteration(iteration);
+        }
     }
 
-    private void initialize() {
+    public void initialize() {
+        if (initialized) {
+            return;
+        }
+
+        if (dispatcher != null) {
+            Initialization initialization = dispatcher.initialize();
+            Verify.verifyNotNull(initialization);
+
+            configure(initialization);
+            logger.info("Using in-process dispatcher " + dispatcher.getClass().getSimpleName() + " for mode " + mode
+                    + (delta ? " with delta states" : "") + (latency > 0.0 ? " with decision latency " + latency : ""));
+
+            initialized = true;
+            return;
+        }
+
         try {
-            logger.info("Waiting for initialization...");
-            AbstractMessage response = mapper.readValue(socket.recv(), AbstractMessage.class);
+            logger.info("Waiting for initialization of mode " + mode + "...");
+            byte[] payload = server.receive(mode);
+            record(0.0, payload);
+
+            AbstractMessage response = initializationMapper.readValue(payload, AbstractMessage.class);
 
             Verify.verify(response instanceof Initialization);
-            logger.info("OK!");
+            Initialization initialization = (Initialization) response;
+
+            if (initialization.codec == null) {
+                initialization.codec = "json";
+            }
+
+            mapper = createMapper(initialization.codec);
+            configure(initialization);
+
+            if (indexed) {
+                IndexedMixIns.register(mapper);
+            }
+
+            stateWriter = new StateWriter(mapper.getFactory(), indexed);
+            assignmentReader = new AssignmentReader(mapper.getFactory());
+
+            if (initialization.sharedMemory != null) {
+                Verify.verify(indexed, "Shared memory requires indexed identifiers");
+                sharedState = new SharedStateWriter(initialization.sharedMemory);
+            }
+
+            initialized = true;
+            logger.info("OK! Using codec " + initialization.codec + (delta ? " with delta states" : "")
+                    + (indexed ? " with indexed identifiers" : "")
+                    + (sharedState != null ? " with shared memory " + initialization.sharedMemory : "")
+                    + (latency > 0.0 ? " with decision latency " + latency : ""));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    public Assignment startIteration(List<Iteration.Vehicle> vehicles) {
+    private void configure(Initialization initialization) {
+        delta = initialization.delta;
+        indexed = initialization.indexed;
+        latency = initialization.latency != null ? initialization.latency : configuredLatency;
+    }
+
+    static private ObjectMapper createMapper(String codec) {
+        switch (codec) {
+            case "json":
+                return new ObjectMapper();
+            case "cbor":
+                return new ObjectMapper(new CBORFactory());
+            default:
+                throw new IllegalStateException("Unknown codec: " + codec);
+        }
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Decision latency after which an assignment is implemented. If it is zero,
+     * the simulation waits for the dispatcher in every step.
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    public void startIteration(Iteration message, IdEncoder ids, AssignmentHandler handler) {
         try {
-            if (!initialized) {
-                initialize();
-                initialized = true;
-            }
+            initialize();
+            drainAssignment();
+
+            this.ids = ids;
 
-            Iteration message = new Iteration();
             message.iteration = iteration;
-            message.vehicles = vehicles;
+            message.mode = mode;
 
-            logger.info("Initializing iteration " + iteration + "...");
-            socket.send(mapper.writeValueAsBytes(message));
+            logger.info("Initializing iteration " + iteration + " for mode " + mode + "...");
 
-            AbstractMessage response;
-            while (true) {
-                logger.debug("... waiting for response ...");
-                response = mapper.readValue(socket.recv(), AbstractMessage.class);
+            if (sharedState != null) {
+                sharedState.start(message.vehicleIds.size());
+            }
 
-                if (response instanceof TravelTimeQuery query) {
-                    logger.debug("... handling travel time query ...");
-                    socket.send(mapper.writeValueAsBytes(travelTimeManager.query(query, 0.0)));
-                } else {
-                    break;
-                }
+            awaitingTime = 0.0;
+            waitSpan = metrics.start(Phase.WAIT);
+
+            if (dispatcher != null) {
+                dispatchedAssignment = dispatcher.startIteration(message, queryContext);
+            } else {
+                send(0.0, mapper.writeValueAsBytes(message));
             }
 
-            Verify.verify(response instanceof Assignment);
+            awaitingAssignment = true;
 
+            receiveAssignment(handler);
             logger.info("OK!");
-            return (Assignment) response;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    public Assignment update(State state) {
+    public void update(StateBuffer state, AssignmentHandler handler) {
+        sendState(state);
+        receiveAssignment(handler);
+
+        logger.debug("OK!");
+    }
+
+    public void sendState(StateBuffer state) {
         try {
-            logger.debug("Sending state at " + state.time + "...");
-            socket.send(mapper.writeValueAsBytes(state));
-
-            AbstractMessage response;
-            while (true) {
-                logger.debug("... waiting for response ...");
-                response = mapper.readValue(socket.recv(), AbstractMessage.class);
-
-                if (response instanceof TravelTimeQuery query) {
-                    logger.debug("... handling travel time query ...");
-                    socket.send(mapper.writeValueAsBytes(travelTimeManager.query(query, state.time)));
-                } else {
-                    break;
-                }
+            Verify.verify(!awaitingAssignment, "Still waiting for the previous assignment");
+
+            logger.debug("Sending state at " + state.getTime() + "...");
+
+            if (dispatcher != null) {
+                // the dispatcher works on the state directly, so all of its time is waiting
+                awaitingTime = state.getTime();
+
+                BridgeMetrics.Span span = metrics.start(Phase.WAIT);
+                dispatchedAssignment = dispatcher.update(state.toState(ids), queryContext);
+                span.end();
+
+                awaitingAssignment = true;
+                return;
             }
 
-            Verify.verify(response instanceof Assignment);
+            BridgeMetrics.Span span = metrics.start(Phase.SERIALIZE);
+
+            Long sequence = sharedState != null ? sharedState.write(state) : null;
+            int length = stateWriter.write(state, sequence);
+            span.end(length);
+
+            span = metrics.start(Phase.SEND);
+            server.send(mode, stateWriter.getBuffer(), length);
 
-            logger.debug("OK!");
-            return (Assignment) response;
+            if (recorder != null) {
+                recorder.sent(state.getTime(), stateWriter.getBuffer(), length);
+            }
+            span.end(length);
+
+            awaitingAssignment = true;
+            awaitingTime = state.getTime();
+            waitSpan = startWaiting(false);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    @Override
-    public void notifyShutdown(ShutdownEvent event) {
+    /**
+     * Waits for the assignment and passes it to the handler.
+     */
+    public void receiveAssignment(AssignmentHandler handler) {
+        if (dispatcher != null) {
+            Verify.verify(awaitingAssignment, "No state has been sent");
+            Verify.verifyNotNull(dispatchedAssignment, "Dispatcher returned no assignment");
+
+            Assignment assignment = dispatchedAssignment;
+            dispatchedAssignment = null;
+            awaitingAssignment = false;
+
+            replay(assignment, handler);
+            return;
+        }
+
+        if (waitSpan.getPhase() == Phase.OVERLAP) {
+            // the simulation is blocked from here on
+            waitSpan.end();
+            waitSpan = startWaiting(true);
+        }
+
+        while (true) {
+            logger.debug("... waiting for response ...");
+
+            if (handleResponse(server.receive(mode), handler, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Passes the assignment to the handler if it has arrived, without waiting for
+     * it. Queries that have arrived in the meantime are answered. The assignment
+     * of an in-process dispatcher is always available.
+     */
+    public boolean pollAssignment(AssignmentHandler handler) {
+        if (dispatcher != null) {
+            receiveAssignment(handler);
+            return true;
+        }
+
+        byte[] payload;
+        while ((payload = server.poll(mode)) != null) {
+            if (handleResponse(payload, handler, false)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Answers queries of the dispatcher and returns false until the assignment is
+     * received and passed to the handler.
+     */
+    public boolean handleResponse(byte[] payload, AssignmentHandler handler) {
+        return handleResponse(payload, handler, true);
+    }
+
+    /**
+     * In pipelined mode, the time until the dispatcher responds is only waiting if
+     * the simulation is blocked. Otherwise, it overlaps with the simulation.
+     */
+    private BridgeMetrics.Span startWaiting(boolean blocking) {
+        return metrics.start(blocking || latency <= 0.0 ? Phase.WAIT : Phase.OVERLAP);
+    }
+
+    private boolean handleResponse(byte[] payload, AssignmentHandler handler, boolean blocking) {
         try {
-            logger.info("Sending finalization...");
-            socket.send(mapper.writeValueAsBytes(new Finalization()));
+            Verify.verify(awaitingAssignment, "No state has been sent");
+            waitSpan.end(payload.length);
+            record(awaitingTime, payload);
+
+            // the common case is streamed, the rest goes through the object mapper
+            BridgeMetrics.Span span = metrics.start(Phase.DESERIALIZE);
+
+            if (assignmentReader.read(payload, ids, handler)) {
+                span.end(payload.length);
+                awaitingAssignment = false;
+                return true;
+            }
+
+            AbstractMessage response = mapper.readValue(payload, AbstractMessage.class);
+            span.end(payload.length);
+
+            if (queryHandlers.containsKey(response.getClass())) {
+                logger.debug("... handling " + response.getClass().getSimpleName() + " ...");
+
+                span = metrics.start(Phase.QUERY);
+                byte[] answer = mapper.writeValueAsBytes(answerQuery(response));
+                send(awaitingTime, answer);
+                span.end(answer.length);
+
+                waitSpan = startWaiting(blocking);
+                return false;
+            }
+
+            Verify.verify(response instanceof Assignment);
+            awaitingAssignment = false;
+
+            replay((Assignment) response, handler);
+            return true;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+    }
+
+    /**
+     * Answers a query of the remote or in-process dispatcher at the time of the
+     * state it is working on.
+     */
+    @SuppressWarnings("unchecked")
+    private AbstractMessage answerQuery(AbstractMessage query) {
+        QueryHandler<AbstractMessage> handler = (QueryHandler<AbstractMessage>) queryHandlers.get(query.getClass());
+        Verify.verifyNotNull(handler, "No handler for " + query.getClass().getSimpleName());
+
+        return handler.handle(query, awaitingTime, ids);
+    }
+
+    /**
+     * Passes an assignment that has been received as an object to the handler.
+     */
+    private void replay(Assignment assignment, AssignmentHandler handler) {
+        handler.startAssignment();
+
+        for (var entry : assignment.stops.entrySet()) {
+            DvrpVehicle vehicle = ids.decodeVehicle(entry.getKey());
+            Verify.verifyNotNull(vehicle, "Unknown vehicle " + entry.getKey());
+            handler.vehicle(vehicle);
+
+            for (Assignment.Stop stop : entry.getValue()) {
+                List<Link> route = null;
+
+                if (stop.route != null) {
+                    route = new ArrayList<>(stop.route.size());
+
+                    for (String rawLink : stop.route) {
+                        route.add(ids.decodeLink(rawLink));
+                    }
+                }
+
+                handler.stop(ids.decodeLink(stop.link), stop.pickup, stop.dropoff, route, stop.earliestStartTime,
+                        stop.stopDuration, stop.id);
+            }
+        }
+
+        for (String requestId : assignment.rejections) {
+            handler.rejection(requestId);
+        }
 
-        if (context != null) {
-            context.close();
+        handler.waitFor(assignment.waitFor);
+    }
+
+    private void send(double time, byte[] payload) {
+        server.send(mode, payload);
+
+        if (recorder != null) {
+            recorder.sent(time, payload, payload.length);
+        }
+    }
+
+    private void record(double time, byte[] payload) {
+        if (recorder != null) {
+            recorder.received(time, payload);
+        }
+    }
+
+    private void drainAssignment() {
+        if (awaitingAssignment) {
+            // the simulation ended before the last pipelined assignment was due
+            logger.info("Discarding pending assignment sent for " + awaitingTime);
+            receiveAssignment(DISCARD);
+        }
+    }
+
+    static private final AssignmentHandler DISCARD = new AssignmentHandler() {
+        @Override
+        public void startAssignment() {
+        }
+
+        @Override
+        public void vehicle(DvrpVehicle vehicle) {
+        }
+
+        @Override
+        public void stop(Link link, List<String> pickup, List<String> dropoff, List<Link> route,
+                double earliestStartTime, double stopDuration, String id) {
+        }
+
+        @Override
+        public void rejection(String requestId) {
+        }
+
+        @Override
+        public void waitFor(double waitFor) {
+        }
+    };
+
+    public void finalizeConversation() {
+        if (!initialized) {
+            return;
+        }
+
+        try {
+            drainAssignment();
+
+            if (dispatcher != null) {
+                dispatcher.finish();
+                return;
+            }
+
+            logger.info("Sending finalization for mode " + mode + "...");
+            send(Double.NaN, mapper.writeValueAsBytes(new Finalization()));
+
+            if (recorder != null) {
+                recorder.close();
+            }
+
+            if (sharedState != null) {
+                sharedState.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 }
@@ -0,0 +1,77 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.irtx.matsim_fleetpy.bridge.communication.Transport.Message;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.controler.listener.StartupListener;
+
+import com.google.common.base.Verify;
+
+/**
+ * Connects the managers of all modes to their dispatchers through one
+ * transport. Managers with an in-process dispatcher never use the transport.
+ */
+public class CommunicationServer implements StartupListener, IterationStartsListener, ShutdownListener {
+    private final Transport transport;
+    private final Map<String, CommunicationManager> managers = new LinkedHashMap<>();
+
+    public CommunicationServer(Transport transport) {
+        this.transport = transport;
+    }
+
+    public void register(CommunicationManager manager) {
+        Verify.verify(!managers.containsKey(manager.getMode()), "Mode " + manager.getMode() + " is registered twice");
+        managers.put(manager.getMode(), manager);
+    }
+
+    @Override
+    public void notifyStartup(StartupEvent event) {
+        transport.start(managers.keySet());
+    }
+
+    @Override
+    public void notifyIterationStarts(IterationStartsEvent event) {
+        transport.startIteration(event.getIteration());
+    }
+
+    public byte[] receive(String mode) {
+        return receive(Collections.singleton(mode)).payload();
+    }
+
+    public Message receive(Collection<String> modes) {
+        return transport.receive(modes);
+    }
+
+    /**
+     * Returns null if no message has arrived for the mode.
+     */
+    public byte[] poll(String mode) {
+        Message message = transport.poll(Collections.singleton(mode));
+        return message == null ? null : message.payload();
+    }
+
+    public void send(String mode, byte[] payload) {
+        send(mode, payload, payload.length);
+    }
+
+    public void send(String mode, byte[] payload, int length) {
+        transport.send(mode, payload, length);
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        for (CommunicationManager manager : managers.values()) {
+            manager.finalizeConversation();
+        }
+
+        transport.close();
+    }
+}
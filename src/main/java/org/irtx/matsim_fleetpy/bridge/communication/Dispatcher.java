@@ -0,0 +1,29 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Assignment;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Initialization;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Iteration;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.State;
+
+/**
+ * Dispatcher that runs inside of the JVM. It exchanges the same messages as a
+ * remote dispatcher, but as objects without any serialization. States are not
+ * changed by the bridge after they have been passed, so they can be kept.
+ * Queries are answered through the context that is passed with each call, which
+ * must not be used once the call has returned.
+ */
+public interface Dispatcher {
+    /**
+     * Only the delta, indexed and latency options are relevant in-process.
+     */
+    default Initialization initialize() {
+        return new Initialization();
+    }
+
+    Assignment startIteration(Iteration iteration, QueryContext queries);
+
+    Assignment update(State state, QueryContext queries);
+
+    default void finish() {
+    }
+}
@@ -0,0 +1,32 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.util.Collection;
+
+/**
+ * Used when all modes are served by an in-process Dispatcher. The managers
+ * then pass the message objects directly, so nothing is ever transported.
+ */
+public class InProcessTransport implements Transport {
+    @Override
+    public void start(Collection<String> modes) {
+    }
+
+    @Override
+    public Message receive(Collection<String> modes) {
+        throw new IllegalStateException("Modes " + modes + " have no in-process dispatcher");
+    }
+
+    @Override
+    public Message poll(Collection<String> modes) {
+        return receive(modes);
+    }
+
+    @Override
+    public void send(String mode, byte[] payload, int length) {
+        throw new IllegalStateException("Mode " + mode + " has no in-process dispatcher");
+    }
+
+    @Override
+    public void close() {
+    }
+}
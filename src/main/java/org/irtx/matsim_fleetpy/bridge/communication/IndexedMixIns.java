@@ -0,0 +1,73 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Iteration;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.RouteResponse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * In indexed mode, link and vehicle identifiers are transmitted as plain
+ * integers. Reading them back into the String fields of the messages is
+ * covered by Jackson's scalar coercion, so only messages that are written by
+ * MATSim need a mixin. States and assignments are written and read with the
+ * indices directly. The link and node lists of the travel time, zone and
+ * network responses are tables from indices to identifiers, so they keep the
+ * strings.
+ */
+public class IndexedMixIns {
+    static public void register(ObjectMapper mapper) {
+        mapper.addMixIn(Iteration.Vehicle.class, IterationVehicleMixIn.class);
+        mapper.addMixIn(RouteResponse.class, RouteResponseMixIn.class);
+    }
+
+    static public class IndexSerializer extends StdSerializer<String> {
+        public IndexSerializer() {
+            super(String.class);
+        }
+
+        @Override
+        public void serialize(String value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeNumber(Integer.parseInt(value));
+        }
+    }
+
+    static public class IndexListSerializer extends StdSerializer<List<String>> {
+        @SuppressWarnings("unchecked")
+        public IndexListSerializer() {
+            super((Class<List<String>>) (Class<?>) List.class);
+        }
+
+        @Override
+        public void serialize(List<String> value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartArray();
+
+            for (String item : value) {
+                generator.writeNumber(Integer.parseInt(item));
+            }
+
+            generator.writeEndArray();
+        }
+    }
+
+    static abstract class IterationVehicleMixIn {
+        @JsonSerialize(using = IndexSerializer.class)
+        String id;
+
+        @JsonSerialize(using = IndexSerializer.class)
+        String startLink;
+    }
+
+    static abstract class RouteResponseMixIn {
+        @JsonSerialize(contentUsing = IndexListSerializer.class)
+        List<List<String>> paths;
+    }
+}
@@ -0,0 +1,12 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import org.irtx.matsim_fleetpy.bridge.communication.messages.AbstractMessage;
+
+/**
+ * Lets an in-process dispatcher send the same queries as a remote one. They are
+ * answered directly by the handlers registered for the mode, at the time of the
+ * state that is currently dispatched.
+ */
+public interface QueryContext {
+    AbstractMessage query(AbstractMessage query);
+}
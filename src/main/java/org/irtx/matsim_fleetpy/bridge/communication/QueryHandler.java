@@ -0,0 +1,8 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import org.irtx.matsim_fleetpy.bridge.IdEncoder;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.AbstractMessage;
+
+public interface QueryHandler<Q extends AbstractMessage> {
+    AbstractMessage handle(Q query, double now, IdEncoder ids);
+}
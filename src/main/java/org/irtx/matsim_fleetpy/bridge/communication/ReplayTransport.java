@@ -0,0 +1,69 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Replays the messages that have been received from the dispatchers in a
+ * recorded run (see TraceRecorder). Everything that is sent is dropped.
+ */
+public class ReplayTransport implements Transport {
+    private final Logger logger = LogManager.getLogger(ReplayTransport.class);
+
+    private final String replayDirectory;
+    private final Map<String, TraceReader> replays = new HashMap<>();
+    private int iteration;
+
+    public ReplayTransport(String replayDirectory) {
+        this.replayDirectory = replayDirectory;
+    }
+
+    @Override
+    public void start(Collection<String> modes) {
+        logger.info("Replaying modes " + modes + " from " + replayDirectory);
+    }
+
+    @Override
+    public void startIteration(int iteration) {
+        this.iteration = iteration;
+        close();
+    }
+
+    @Override
+    public Message receive(Collection<String> modes) {
+        // the traces of the modes are independent, so any of them can be served
+        String mode = modes.iterator().next();
+        return new Message(mode, getReplay(mode).nextReceived());
+    }
+
+    @Override
+    public Message poll(Collection<String> modes) {
+        // recorded messages are always available
+        return receive(modes);
+    }
+
+    @Override
+    public void send(String mode, byte[] payload, int length) {
+        // nobody is listening
+    }
+
+    private TraceReader getReplay(String mode) {
+        return replays.computeIfAbsent(mode, m -> {
+            String iterationPath = replayDirectory + "/ITERS/it." + iteration;
+            return new TraceReader(TraceRecorder.getPath(iterationPath, m), m);
+        });
+    }
+
+    @Override
+    public void close() {
+        for (TraceReader replay : replays.values()) {
+            replay.close();
+        }
+
+        replays.clear();
+    }
+}
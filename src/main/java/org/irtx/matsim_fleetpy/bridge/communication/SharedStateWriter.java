@@ -0,0 +1,182 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.matsim.api.core.v01.network.Link;
+
+/**
+ * Writes the vehicle states in columns into a memory-mapped file that is shared
+ * with a dispatcher on the same host. The file is laid out as follows, in
+ * little endian with one slot per vehicle index:
+ * 
+ * <pre>
+ * header (64 bytes): int32 magic, int32 version, int64 sequence, int32 vehicles, int32 padding, float64 time
+ * float64 currentExitTime[vehicles]
+ * float64 divergeTime[vehicles]
+ * int32 currentLink[vehicles]  (-1 if unknown)
+ * int32 divergeLink[vehicles]  (-1 if none)
+ * int8 state[vehicles]         (-1 unknown, 0 stay, 1 stop, 2 drive, 3 inactive)
+ * </pre>
+ * 
+ * The sequence is odd while the columns are written and even once they are
+ * consistent. The odd sequence is ordered before the columns by a store-store
+ * fence, and the even one is written with release semantics after them. A
+ * reader reads the sequence, retries if it is odd, reads the columns and then
+ * reads the sequence again, retrying if it has changed. Only the vehicles of a
+ * state are written, the other slots keep their values, which matches the
+ * delta mode.
+ *
+ * The mapping is reused across iterations as long as the number of vehicles
+ * does not change. Otherwise, the file is truncated and mapped again, and the
+ * previous mapping is released once it is garbage collected, since mapped
+ * buffers cannot be unmapped explicitly.
+ */
+class SharedStateWriter {
+    static final int MAGIC = 0x4650534D; // FPSM
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SEQUENCE_OFFSET = 8;
+
+    static private final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final String path;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int size = -1;
+    private long sequence;
+
+    private int divergeTimeOffset;
+    private int currentLinkOffset;
+    private int divergeLinkOffset;
+    private int stateOffset;
+
+    SharedStateWriter(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Resets the file to one empty slot per vehicle index. The sequence keeps
+     * increasing across iterations, so a reader notices the reset.
+     */
+    void start(int vehicles) {
+        divergeTimeOffset = HEADER_SIZE + vehicles * Double.BYTES;
+        currentLinkOffset = divergeTimeOffset + vehicles * Double.BYTES;
+        divergeLinkOffset = currentLinkOffset + vehicles * Integer.BYTES;
+        stateOffset = divergeLinkOffset + vehicles * Integer.BYTES;
+        int requiredSize = stateOffset + vehicles;
+
+        if (requiredSize != size) {
+            close();
+
+            try {
+                channel = FileChannel.open(Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                buffer = channel.map(MapMode.READ_WRITE, 0, requiredSize);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                size = requiredSize;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        }
+
+        startWriting();
+
+        buffer.putInt(16, vehicles);
+        buffer.putDouble(24, Double.NaN);
+
+        for (int slot = 0; slot < vehicles; slot++) {
+            writeSlot(slot, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, -1, -1, (byte) -1);
+        }
+
+        endWriting();
+    }
+
+    /**
+     * Writes the selected vehicles of the state and returns the new sequence
+     * number.
+     */
+    long write(StateBuffer state) {
+        startWriting();
+
+        for (int k = 0; k < state.getSelectedCount(); k++) {
+            int slot = state.getSelected(k);
+
+            writeSlot(slot, state.getCurrentExitTime(slot), state.getDivergeTime(slot),
+                    indexLink(state.getCurrentLink(slot)), indexLink(state.getDivergeLink(slot)),
+                    encodeState(state.getState(slot)));
+        }
+
+        buffer.putDouble(24, state.getTime());
+        endWriting();
+
+        return sequence;
+    }
+
+    private void startWriting() {
+        SEQUENCE.setOpaque(buffer, SEQUENCE_OFFSET, ++sequence);
+
+        // the columns must not become visible before the odd sequence
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWriting() {
+        // all columns become visible before the even sequence
+        SEQUENCE.setRelease(buffer, SEQUENCE_OFFSET, ++sequence);
+    }
+
+    private void writeSlot(int slot, double currentExitTime, double divergeTime, int currentLink, int divergeLink,
+            byte state) {
+        buffer.putDouble(HEADER_SIZE + slot * Double.BYTES, currentExitTime);
+        buffer.putDouble(divergeTimeOffset + slot * Double.BYTES, divergeTime);
+        buffer.putInt(currentLinkOffset + slot * Integer.BYTES, currentLink);
+        buffer.putInt(divergeLinkOffset + slot * Integer.BYTES, divergeLink);
+        buffer.put(stateOffset + slot, state);
+    }
+
+    static private int indexLink(Link link) {
+        return link == null ? -1 : link.getId().index();
+    }
+
+    static private byte encodeState(String state) {
+        switch (state) {
+            case "stay":
+                return 0;
+            case "stop":
+                return 1;
+            case "drive":
+                return 2;
+            case "inactive":
+                return 3;
+            default:
+                throw new IllegalStateException("Unknown vehicle state: " + state);
+        }
+    }
+
+    void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            channel = null;
+            buffer = null;
+            size = -1;
+        }
+    }
+}
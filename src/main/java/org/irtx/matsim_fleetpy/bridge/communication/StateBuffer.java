@@ -0,0 +1,318 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.irtx.matsim_fleetpy.bridge.IdEncoder;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.State;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.optimizer.Request;
+
+/**
+ * State of one mode that is kept between steps and updated in place. The
+ * vehicle columns have one slot per vehicle index and keep their values until
+ * a vehicle is rebuilt, so only the vehicles that are selected for the current
+ * step are sent. The writers encode the columns directly, so no message
+ * objects are created for remote dispatchers. In-process dispatchers receive a
+ * copy as a State.
+ */
+public class StateBuffer {
+    private double time;
+
+    private DvrpVehicle[] vehicles = new DvrpVehicle[0];
+    private Link[] currentLinks;
+    private double[] currentExitTimes;
+    private Link[] divergeLinks;
+    private double[] divergeTimes;
+    private String[] states;
+    private List<String>[] finished;
+
+    private int[] selected = new int[0];
+    private int selectedCount = 0;
+
+    private final Pairs pickedUp = new Pairs();
+    private final Pairs droppedOff = new Pairs();
+    private final Pairs pickingUp = new Pairs();
+    private final Pairs droppingOff = new Pairs();
+
+    // submitted requests, pooled between steps
+    static class Submission {
+        Id<Request> id;
+        Link originLink;
+        Link destinationLink;
+
+        double earliestPickupTime;
+        double latestPickupTime;
+        double latestArrivalTime;
+    }
+
+    private final List<Submission> submitted = new ArrayList<>();
+    private int submittedCount = 0;
+
+    // requests with the vehicle they are assigned to
+    static class Pairs {
+        private final List<Id<Request>> requests = new ArrayList<>();
+        private final List<Id<DvrpVehicle>> vehicles = new ArrayList<>();
+
+        void add(Id<Request> requestId, Id<DvrpVehicle> vehicleId) {
+            requests.add(requestId);
+            vehicles.add(vehicleId);
+        }
+
+        int size() {
+            return requests.size();
+        }
+
+        Id<Request> getRequest(int k) {
+            return requests.get(k);
+        }
+
+        Id<DvrpVehicle> getVehicle(int k) {
+            return vehicles.get(k);
+        }
+
+        private void clear() {
+            requests.clear();
+            vehicles.clear();
+        }
+    }
+
+    /**
+     * Creates the slots for the vehicles of the fleet.
+     */
+    @SuppressWarnings("unchecked")
+    public void start(Collection<? extends DvrpVehicle> fleet) {
+        int slots = Id.getNumberOfIds(DvrpVehicle.class);
+
+        vehicles = new DvrpVehicle[slots];
+        currentLinks = new Link[slots];
+        currentExitTimes = new double[slots];
+        divergeLinks = new Link[slots];
+        divergeTimes = new double[slots];
+        states = new String[slots];
+        finished = new List[slots];
+
+        Arrays.fill(currentExitTimes, Double.NEGATIVE_INFINITY);
+        Arrays.fill(divergeTimes, Double.NEGATIVE_INFINITY);
+
+        for (DvrpVehicle vehicle : fleet) {
+            int slot = vehicle.getId().index();
+            vehicles[slot] = vehicle;
+            finished[slot] = new ArrayList<>();
+        }
+
+        selected = new int[fleet.size()];
+        selectedCount = 0;
+    }
+
+    /**
+     * Starts the state of the next step. The finished stops of the vehicles that
+     * have been sent before are cleared, so each finished stop is sent only once.
+     */
+    public void clear(double time) {
+        this.time = time;
+
+        for (int k = 0; k < selectedCount; k++) {
+            finished[selected[k]].clear();
+        }
+
+        selectedCount = 0;
+        submittedCount = 0;
+
+        pickedUp.clear();
+        droppedOff.clear();
+        pickingUp.clear();
+        droppingOff.clear();
+    }
+
+    /**
+     * Updates the columns of a vehicle and returns whether they differ from the
+     * ones that have been set before.
+     */
+    public boolean setVehicle(DvrpVehicle vehicle, String state, Link currentLink, double currentExitTime,
+            Link divergeLink, double divergeTime) {
+        int slot = vehicle.getId().index();
+
+        // the diverge time of a staying vehicle is always the current time
+        boolean changed = !state.equals(states[slot]) || currentLink != currentLinks[slot]
+                || Double.compare(currentExitTime, currentExitTimes[slot]) != 0 || divergeLink != divergeLinks[slot]
+                || (!state.equals("stay") && Double.compare(divergeTime, divergeTimes[slot]) != 0);
+
+        states[slot] = state;
+        currentLinks[slot] = currentLink;
+        currentExitTimes[slot] = currentExitTime;
+        divergeLinks[slot] = divergeLink;
+        divergeTimes[slot] = divergeTime;
+
+        return changed;
+    }
+
+    public void addFinished(DvrpVehicle vehicle, Collection<String> stopIds) {
+        finished[vehicle.getId().index()].addAll(stopIds);
+    }
+
+    /**
+     * Adds the vehicle to the current state.
+     */
+    public void select(DvrpVehicle vehicle) {
+        int slot = vehicle.getId().index();
+
+        if (states[slot].equals("stay")) {
+            divergeTimes[slot] = time;
+        }
+
+        selected[selectedCount++] = slot;
+    }
+
+    public void addPickedUp(Id<Request> requestId, Id<DvrpVehicle> vehicleId) {
+        pickedUp.add(requestId, vehicleId);
+    }
+
+    public void addDroppedOff(Id<Request> requestId, Id<DvrpVehicle> vehicleId) {
+        droppedOff.add(requestId, vehicleId);
+    }
+
+    public void addPickingUp(Id<Request> requestId, Id<DvrpVehicle> vehicleId) {
+        pickingUp.add(requestId, vehicleId);
+    }
+
+    public void addDroppingOff(Id<Request> requestId, Id<DvrpVehicle> vehicleId) {
+        droppingOff.add(requestId, vehicleId);
+    }
+
+    public void addSubmitted(Id<Request> requestId, Link originLink, Link destinationLink,
+            double earliestPickupTime, double latestPickupTime, double latestArrivalTime) {
+        if (submittedCount == submitted.size()) {
+            submitted.add(new Submission());
+        }
+
+        Submission submission = submitted.get(submittedCount++);
+        submission.id = requestId;
+        submission.originLink = originLink;
+        submission.destinationLink = destinationLink;
+        submission.earliestPickupTime = earliestPickupTime;
+        submission.latestPickupTime = latestPickupTime;
+        submission.latestArrivalTime = latestArrivalTime;
+    }
+
+    double getTime() {
+        return time;
+    }
+
+    int getSelectedCount() {
+        return selectedCount;
+    }
+
+    int getSelected(int k) {
+        return selected[k];
+    }
+
+    DvrpVehicle getVehicle(int slot) {
+        return vehicles[slot];
+    }
+
+    Link getCurrentLink(int slot) {
+        return currentLinks[slot];
+    }
+
+    double getCurrentExitTime(int slot) {
+        return currentExitTimes[slot];
+    }
+
+    Link getDivergeLink(int slot) {
+        return divergeLinks[slot];
+    }
+
+    double getDivergeTime(int slot) {
+        return divergeTimes[slot];
+    }
+
+    String getState(int slot) {
+        return states[slot];
+    }
+
+    List<String> getFinished(int slot) {
+        return finished[slot];
+    }
+
+    Pairs getPickedUp() {
+        return pickedUp;
+    }
+
+    Pairs getDroppedOff() {
+        return droppedOff;
+    }
+
+    Pairs getPickingUp() {
+        return pickingUp;
+    }
+
+    Pairs getDroppingOff() {
+        return droppingOff;
+    }
+
+    int getSubmittedCount() {
+        return submittedCount;
+    }
+
+    Submission getSubmitted(int k) {
+        return submitted.get(k);
+    }
+
+    /**
+     * Creates the message objects for an in-process dispatcher.
+     */
+    State toState(IdEncoder ids) {
+        State state = new State();
+        state.time = time;
+
+        copyPairs(pickedUp, state.pickedUp, ids);
+        copyPairs(droppedOff, state.droppedOff, ids);
+        copyPairs(pickingUp, state.pickingUp, ids);
+        copyPairs(droppingOff, state.droppingOff, ids);
+
+        for (int k = 0; k < selectedCount; k++) {
+            int slot = selected[k];
+
+            State.Vehicle vehicle = new State.Vehicle();
+            vehicle.id = ids.encode(vehicles[slot].getId());
+            vehicle.currentLink = encodeLink(currentLinks[slot], ids);
+            vehicle.currentExitTime = currentExitTimes[slot];
+            vehicle.divergeLink = encodeLink(divergeLinks[slot], ids);
+            vehicle.divergeTime = divergeTimes[slot];
+            vehicle.state = states[slot];
+            vehicle.finished.addAll(finished[slot]);
+            state.vehicles.add(vehicle);
+        }
+
+        for (int k = 0; k < submittedCount; k++) {
+            Submission submission = submitted.get(k);
+
+            State.Request request = new State.Request();
+            request.id = submission.id.toString();
+            request.originLink = encodeLink(submission.originLink, ids);
+            request.destinationLink = encodeLink(submission.destinationLink, ids);
+            request.earliestPickupTime = submission.earliestPickupTime;
+            request.latestPickupTime = submission.latestPickupTime;
+            request.latestArrivalTime = submission.latestArrivalTime;
+            state.submitted.add(request);
+        }
+
+        return state;
+    }
+
+    static private void copyPairs(Pairs pairs, Map<String, String> values, IdEncoder ids) {
+        for (int k = 0; k < pairs.size(); k++) {
+            values.put(pairs.getRequest(k).toString(), ids.encode(pairs.getVehicle(k)));
+        }
+    }
+
+    static private String encodeLink(Link link, IdEncoder ids) {
+        return link == null ? null : ids.encode(link.getId());
+    }
+}
@@ -0,0 +1,147 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes states field by field from the state buffer into a byte buffer that is
+ * reused between steps. The output is the same as the one of the object mapper
+ * for the corresponding State. In indexed mode, the indices of the identifiers
+ * are written as numbers directly.
+ */
+class StateWriter {
+    private final JsonFactory factory;
+    private final boolean indexed;
+
+    private final Buffer buffer = new Buffer();
+
+    StateWriter(JsonFactory factory, boolean indexed) {
+        this.factory = factory;
+        this.indexed = indexed;
+    }
+
+    static private class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Writes the selected vehicles of the state and returns the number of bytes
+     * written to the buffer. With a sequence, the vehicle columns are shared, so
+     * only the vehicles with finished stops are written since those do not fit
+     * into the columns.
+     */
+    int write(StateBuffer state, Long sequence) throws IOException {
+        buffer.reset();
+
+        try (JsonGenerator generator = factory.createGenerator(buffer)) {
+            generator.writeStartObject();
+            generator.writeStringField("@message", "state");
+            generator.writeNumberField("time", state.getTime());
+
+            if (sequence != null) {
+                generator.writeNumberField("sequence", sequence);
+            }
+
+            writePairs(generator, "pickedUp", state.getPickedUp());
+            writePairs(generator, "droppedOff", state.getDroppedOff());
+            writePairs(generator, "pickingUp", state.getPickingUp());
+            writePairs(generator, "droppingOff", state.getDroppingOff());
+
+            generator.writeArrayFieldStart("vehicles");
+            for (int k = 0; k < state.getSelectedCount(); k++) {
+                int slot = state.getSelected(k);
+
+                if (sequence != null && state.getFinished(slot).isEmpty()) {
+                    continue;
+                }
+
+                generator.writeStartObject();
+                writeIdField(generator, "id", state.getVehicle(slot).getId());
+                writeLinkField(generator, "currentLink", state.getCurrentLink(slot));
+                generator.writeNumberField("currentExitTime", state.getCurrentExitTime(slot));
+                writeLinkField(generator, "divergeLink", state.getDivergeLink(slot));
+                generator.writeNumberField("divergeTime", state.getDivergeTime(slot));
+                generator.writeStringField("state", state.getState(slot));
+                writeStrings(generator, "finished", state.getFinished(slot));
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart("submitted");
+            for (int k = 0; k < state.getSubmittedCount(); k++) {
+                StateBuffer.Submission request = state.getSubmitted(k);
+
+                generator.writeStartObject();
+                generator.writeStringField("id", request.id.toString());
+                writeLinkField(generator, "originLink", request.originLink);
+                writeLinkField(generator, "destinationLink", request.destinationLink);
+                generator.writeNumberField("earliestPickupTime", request.earliestPickupTime);
+                generator.writeNumberField("latestPickupTime", request.latestPickupTime);
+                generator.writeNumberField("latestArrivalTime", request.latestArrivalTime);
+                generator.writeNumberField("size", 1);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+        }
+
+        return buffer.size();
+    }
+
+    /**
+     * The buffer is only valid until the next state is written.
+     */
+    byte[] getBuffer() {
+        return buffer.array();
+    }
+
+    private void writePairs(JsonGenerator generator, String field, StateBuffer.Pairs pairs) throws IOException {
+        generator.writeObjectFieldStart(field);
+
+        for (int k = 0; k < pairs.size(); k++) {
+            writeIdField(generator, pairs.getRequest(k).toString(), pairs.getVehicle(k));
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeLinkField(JsonGenerator generator, String field, Link link) throws IOException {
+        writeIdField(generator, field, link == null ? null : link.getId());
+    }
+
+    private void writeStrings(JsonGenerator generator, String field, List<String> values) throws IOException {
+        generator.writeArrayFieldStart(field);
+
+        for (String value : values) {
+            generator.writeString(value);
+        }
+
+        generator.writeEndArray();
+    }
+
+    private void writeIdField(JsonGenerator generator, String field, Id<?> id) throws IOException {
+        generator.writeFieldName(field);
+
+        if (id == null) {
+            generator.writeNull();
+        } else if (indexed) {
+            generator.writeNumber(id.index());
+        } else {
+            generator.writeString(id.toString());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Verify;
+
+/**
+ * Reads a trace written by TraceRecorder. After a header (magic number, version
+ * and mode), the gzipped file contains one record per message: the direction
+ * (S for sent by MATSim, R for received), the wall-clock time in nanoseconds
+ * since the epoch, the simulation time, the payload length and the payload.
+ * All numbers are big-endian.
+ */
+public class TraceReader implements AutoCloseable {
+    public record Record(boolean sent, long wallClockTime, double time, byte[] payload) {
+    }
+
+    private final DataInputStream input;
+
+    public TraceReader(String path, String mode) {
+        try {
+            input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(path))));
+
+            Verify.verify(input.readInt() == TraceRecorder.MAGIC, "Not a trace file: " + path);
+            Verify.verify(input.readInt() == TraceRecorder.VERSION, "Unsupported trace version in " + path);
+
+            String traceMode = input.readUTF();
+            Verify.verify(traceMode.equals(mode), "Trace " + path + " has been recorded for mode " + traceMode);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the next record or null at the end of the trace.
+     */
+    public Record next() {
+        try {
+            byte direction;
+
+            try {
+                direction = input.readByte();
+            } catch (EOFException e) {
+                return null;
+            }
+
+            long wallClockTime = input.readLong();
+            double time = input.readDouble();
+
+            byte[] payload = new byte[input.readInt()];
+            input.readFully(payload);
+
+            return new Record(direction == TraceRecorder.SENT, wallClockTime, time, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the next message that has been received from the dispatcher.
+     */
+    public byte[] nextReceived() {
+        Record record;
+
+        do {
+            record = next();
+            Verify.verifyNotNull(record, "Trace ended before the simulation requested the next message");
+        } while (record.sent());
+
+        return record.payload();
+    }
+
+    @Override
+    public void close() {
+        try {
+            input.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.zip.GZIPOutputStream;
+
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+
+/**
+ * Writes all messages exchanged with the dispatcher of one mode to a gzipped
+ * trace file per iteration. See TraceReader for the format.
+ */
+public class TraceRecorder {
+    static final int MAGIC = 0x46505452; // FPTR
+    static final int VERSION = 1;
+
+    static final byte SENT = 'S';
+    static final byte RECEIVED = 'R';
+
+    private final String mode;
+    private final OutputDirectoryHierarchy outputHierarchy;
+
+    private DataOutputStream output;
+
+    public TraceRecorder(String mode, OutputDirectoryHierarchy outputHierarchy) {
+        this.mode = mode;
+        this.outputHierarchy = outputHierarchy;
+    }
+
+    static public String getPath(String iterationPath, String mode) {
+        return iterationPath + "/fleetpy_trace_" + mode + ".bin.gz";
+    }
+
+    public void startIteration(int iteration) {
+        close();
+
+        String path = getPath(outputHierarchy.getIterationPath(iteration), mode);
+
+        try {
+            output = new DataOutputStream(
+                    new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(path), 64 * 1024)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(mode);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void sent(double time, byte[] payload, int length) {
+        write(SENT, time, payload, length);
+    }
+
+    public void received(double time, byte[] payload) {
+        write(RECEIVED, time, payload, payload.length);
+    }
+
+    private void write(byte direction, double time, byte[] payload, int length) {
+        if (output == null) {
+            return;
+        }
+
+        try {
+            Instant now = Instant.now();
+
+            output.writeByte(direction);
+            output.writeLong(now.getEpochSecond() * 1_000_000_000L + now.getNano());
+            output.writeDouble(time);
+            output.writeInt(length);
+            output.write(payload, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void close() {
+        if (output != null) {
+            try {
+                output.close();
+                output = null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
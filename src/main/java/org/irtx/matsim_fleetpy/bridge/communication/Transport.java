@@ -0,0 +1,37 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.util.Collection;
+
+/**
+ * Carries the encoded messages between the managers of all modes and their
+ * dispatchers.
+ */
+public interface Transport {
+    record Message(String mode, byte[] payload) {
+    }
+
+    void start(Collection<String> modes);
+
+    default void startIteration(int iteration) {
+    }
+
+    /**
+     * Waits for the next message addressed to one of the given modes. Messages
+     * for other modes are kept until they are requested.
+     */
+    Message receive(Collection<String> modes);
+
+    /**
+     * Returns the next message addressed to one of the given modes if one has
+     * arrived, and null otherwise.
+     */
+    Message poll(Collection<String> modes);
+
+    /**
+     * Sends the first bytes of the payload. The data is copied, so the buffer can
+     * be reused afterwards.
+     */
+    void send(String mode, byte[] payload, int length);
+
+    void close();
+}
@@ -0,0 +1,169 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.AbstractMessage;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Initialization;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Verify;
+
+/**
+ * Single ROUTER endpoint that serves the dispatchers of all modes, for instance
+ * on tcp://*:port or, for co-located dispatchers, on ipc:///path. Each
+ * connected client is bound to one mode by its initialization message. Both
+ * REQ and DEALER clients are supported.
+ */
+public class ZmqTransport implements Transport {
+    private final Logger logger = LogManager.getLogger(ZmqTransport.class);
+
+    private final String endpoint;
+
+    private ZContext context;
+    private ZMQ.Socket socket;
+    private final ObjectMapper initializationMapper = new ObjectMapper();
+
+    private final Set<String> modes = new LinkedHashSet<>();
+    private final Map<String, Deque<byte[]>> inboxes = new HashMap<>();
+
+    private final Map<String, Client> clientsByIdentity = new HashMap<>();
+    private final Map<String, Client> clientsByMode = new HashMap<>();
+
+    private record Client(byte[] identity, boolean delimited, String mode) {
+    }
+
+    public ZmqTransport(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void start(Collection<String> modes) {
+        this.modes.addAll(modes);
+
+        for (String mode : modes) {
+            inboxes.put(mode, new ArrayDeque<>());
+        }
+
+        logger.info("Creating ZMQ context ...");
+        context = new ZContext();
+
+        logger.info("Setting up ZMQ socket on " + endpoint + " for modes " + modes + "...");
+        socket = context.createSocket(SocketType.ROUTER);
+        socket.bind(endpoint);
+    }
+
+    @Override
+    public Message receive(Collection<String> modes) {
+        return receive(modes, true);
+    }
+
+    @Override
+    public Message poll(Collection<String> modes) {
+        return receive(modes, false);
+    }
+
+    private Message receive(Collection<String> modes, boolean blocking) {
+        for (String mode : modes) {
+            byte[] payload = inboxes.get(mode).poll();
+
+            if (payload != null) {
+                return new Message(mode, payload);
+            }
+        }
+
+        while (true) {
+            byte[] identity = socket.recv(blocking ? 0 : ZMQ.DONTWAIT);
+
+            if (identity == null) {
+                return null; // nothing has arrived yet
+            }
+
+            // the other frames of a message arrive together with the first one
+            byte[] payload = socket.recv();
+
+            // REQ clients send an empty delimiter frame
+            boolean delimited = false;
+            if (payload.length == 0 && socket.hasReceiveMore()) {
+                delimited = true;
+                payload = socket.recv();
+            }
+
+            while (socket.hasReceiveMore()) {
+                socket.recv();
+            }
+
+            String key = HexFormat.of().formatHex(identity);
+            Client client = clientsByIdentity.get(key);
+
+            if (client == null) {
+                client = new Client(identity, delimited, findMode(payload));
+                clientsByIdentity.put(key, client);
+                clientsByMode.put(client.mode(), client);
+
+                logger.info("Dispatcher connected for mode " + client.mode());
+            }
+
+            if (modes.contains(client.mode())) {
+                return new Message(client.mode(), payload);
+            }
+
+            inboxes.get(client.mode()).add(payload);
+        }
+    }
+
+    private String findMode(byte[] payload) {
+        try {
+            AbstractMessage message = initializationMapper.readValue(payload, AbstractMessage.class);
+            Verify.verify(message instanceof Initialization, "Expected initialization from new dispatcher");
+
+            String mode = ((Initialization) message).mode;
+
+            if (mode == null) {
+                Verify.verify(modes.size() == 1, "Initialization needs to specify one of the modes " + modes);
+                mode = modes.iterator().next();
+            }
+
+            Verify.verify(modes.contains(mode), "Unknown mode " + mode);
+            Verify.verify(!clientsByMode.containsKey(mode), "Mode " + mode + " already has a dispatcher");
+
+            return mode;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void send(String mode, byte[] payload, int length) {
+        Client client = clientsByMode.get(mode);
+        Verify.verifyNotNull(client, "No dispatcher connected for mode " + mode);
+
+        socket.sendMore(client.identity());
+
+        if (client.delimited()) {
+            socket.sendMore(new byte[0]);
+        }
+
+        socket.send(payload, 0, length, 0);
+    }
+
+    @Override
+    public void close() {
+        if (context != null) {
+            context.close();
+        }
+    }
+}
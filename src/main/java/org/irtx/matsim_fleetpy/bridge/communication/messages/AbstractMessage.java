@@ -15,6 +15,18 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
                 @Type(value = State.class, name = "state"), //
                 @Type(value = TravelTimeQuery.class, name = "travel_time_query"), //
                 @Type(value = TravelTimeResponse.class, name = "travel_time_response"), //
+                @Type(value = RouteQuery.class, name = "route_query"), //
+                @Type(value = RouteResponse.class, name = "route_response"), //
+                @Type(value = ZoneQuery.class, name = "zone_query"), //
+                @Type(value = ZoneResponse.class, name = "zone_response"), //
+                @Type(value = NetworkQuery.class, name = "network_query"), //
+                @Type(value = NetworkResponse.class, name = "network_response"), //
+                @Type(value = NearestVehiclesQuery.class, name = "nearest_vehicles_query"), //
+                @Type(value = NearestVehiclesResponse.class, name = "nearest_vehicles_response"), //
+                @Type(value = MatchQuery.class, name = "match_query"), //
+                @Type(value = MatchResponse.class, name = "match_response"), //
+                @Type(value = InsertionQuery.class, name = "insertion_query"), //
+                @Type(value = InsertionResponse.class, name = "insertion_response"), //
 })
 public class AbstractMessage {
 
@@ -1,5 +1,10 @@
 package org.irtx.matsim_fleetpy.bridge.communication.messages;
 
 public class Initialization extends AbstractMessage {
-
+    public String mode = null; // required if several modes are served
+    public String codec = "json"; // json, cbor
+    public boolean delta = false;
+    public boolean indexed = false;
+    public Double latency = null; // null: use the configured decision latency
+    public String sharedMemory = null; // path of the shared vehicle columns, requires indexed
 }
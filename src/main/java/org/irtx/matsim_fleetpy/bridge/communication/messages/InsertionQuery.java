@@ -0,0 +1,12 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class InsertionQuery extends AbstractMessage {
+    public List<String> requests = new LinkedList<>();
+    public List<String> vehicles = new LinkedList<>();
+
+    public double stopDuration = 60.0; // of the new pickup and dropoff stops
+    public boolean best = false; // only return the insertion with the lowest detour per pair
+}
@@ -0,0 +1,32 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class InsertionResponse extends AbstractMessage {
+    static public class Insertion {
+        public String request;
+        public String vehicle;
+
+        // number of planned stops before the new pickup and dropoff
+        public int pickupIndex;
+        public int dropoffIndex;
+
+        // served by the planned stop before the index, which is on the same link
+        public boolean pickupMerged;
+        public boolean dropoffMerged;
+
+        // estimates: the legs to and from the new stops are routed at the earliest
+        // pickup time of the request, not at the simulated departure times
+        public double pickupTime;
+        public double dropoffTime;
+        public double detour;
+    }
+
+    public List<Insertion> insertions = new LinkedList<>();
+
+    // planned stops of the vehicles that the indices refer to, null for stops without identifier
+    public Map<String, List<String>> stops = new HashMap<>();
+}
@@ -2,8 +2,12 @@ package org.irtx.matsim_fleetpy.bridge.communication.messages;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 public class Iteration extends AbstractMessage {
     public int iteration;
+    public String mode;
     public List<Vehicle> vehicles;
 
     static public class Vehicle {
@@ -11,4 +15,11 @@ public class Iteration extends AbstractMessage {
         public String startLink;
         public int capacity;
     }
+
+    // index tables, only in indexed mode
+    @JsonInclude(Include.NON_NULL)
+    public List<String> links = null;
+
+    @JsonInclude(Include.NON_NULL)
+    public List<String> vehicleIds = null;
 }
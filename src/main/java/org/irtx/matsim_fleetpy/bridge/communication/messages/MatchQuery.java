@@ -0,0 +1,22 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.List;
+
+public class MatchQuery extends AbstractMessage {
+    public int requests = 0;
+    public int vehicles = 0;
+
+    // one link per request and vehicle, only needed if the costs are calculated
+    public List<String> requestLinks = null;
+    public List<String> vehicleLinks = null;
+
+    // candidate pairs as request and vehicle positions, null: all pairs
+    public int[] pairRequests = null;
+    public int[] pairVehicles = null;
+
+    // cost per pair, null: travel time from the vehicle link to the request link
+    public double[] costs = null;
+
+    public Double maximumCost = null; // pairs with a higher cost are ignored
+    public Double unassignedCost = null; // null: assign as many requests as possible
+}
@@ -0,0 +1,6 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+public class MatchResponse extends AbstractMessage {
+    public int[] assignment; // vehicle position per request, -1 if not assigned
+    public double cost;
+}
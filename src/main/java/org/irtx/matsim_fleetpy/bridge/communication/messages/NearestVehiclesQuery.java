@@ -0,0 +1,11 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class NearestVehiclesQuery extends AbstractMessage {
+    public List<String> origins = new LinkedList<>();
+    public int k = 10;
+
+    public List<String> states = null; // null: all states
+}
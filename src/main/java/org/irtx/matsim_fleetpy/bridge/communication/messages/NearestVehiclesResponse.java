@@ -0,0 +1,9 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.List;
+
+public class NearestVehiclesResponse extends AbstractMessage {
+    // one list per origin, ordered by distance
+    public List<List<String>> vehicles;
+    public List<List<Double>> distances;
+}
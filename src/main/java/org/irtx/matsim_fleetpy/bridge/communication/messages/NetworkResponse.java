@@ -0,0 +1,27 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+@JsonInclude(Include.NON_NULL)
+public class NetworkResponse extends AbstractMessage {
+    public int nodeCount;
+    public int linkCount;
+
+    // little-endian packed arrays, one entry per node or link index
+    public byte[] nodeCoordinates; // float64, x and y per node, NaN if not in the network
+    public byte[] fromNodes; // int32 per link, -1 if not in the network
+    public byte[] toNodes; // int32 per link, -1 if not in the network
+    public byte[] lengths; // per link
+    public byte[] freespeeds; // per link
+    public byte[] lanes; // per link
+
+    // outgoing links of node i are outgoingLinks[outgoingOffsets[i]:outgoingOffsets[i + 1]]
+    public byte[] outgoingOffsets; // int32, nodeCount + 1
+    public byte[] outgoingLinks; // int32
+
+    public List<String> nodes = null;
+    public List<String> links = null;
+}
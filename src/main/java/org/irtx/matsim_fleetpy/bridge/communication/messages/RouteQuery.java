@@ -0,0 +1,14 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class RouteQuery extends AbstractMessage {
+    public List<String> origins = new LinkedList<>();
+    public List<String> destinations = new LinkedList<>();
+
+    public Double departureTime = null; // null: current time
+    public boolean paths = false;
+
+    public String format = "list"; // list, float32, float64
+}
@@ -0,0 +1,20 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+@JsonInclude(Include.NON_NULL)
+public class RouteResponse extends AbstractMessage {
+    // origin x destination
+    public double[][] travelTimes = null;
+    public double[][] distances = null;
+
+    // row-major little-endian values for the packed formats
+    public byte[] packedTravelTimes = null;
+    public byte[] packedDistances = null;
+
+    // row-major, one list of links per origin-destination pair
+    public List<List<String>> paths = null;
+}
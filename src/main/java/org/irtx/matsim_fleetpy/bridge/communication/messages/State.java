@@ -5,9 +5,16 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 public class State extends AbstractMessage {
     public double time;
 
+    // sequence of the vehicle columns, only with shared memory
+    @JsonInclude(Include.NON_NULL)
+    public Long sequence = null;
+
     public Map<String, String> pickedUp = new HashMap<>();
     public Map<String, String> droppedOff = new HashMap<>();
 
@@ -5,4 +5,7 @@ import java.util.List;
 
 public class TravelTimeQuery extends AbstractMessage {
     public List<String> links = new LinkedList<>();
+
+    public String format = "map"; // map, float32, float64
+    public boolean withLinks = false;
 }
@@ -1,8 +1,17 @@
 package org.irtx.matsim_fleetpy.bridge.communication.messages;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+@JsonInclude(Include.NON_NULL)
 public class TravelTimeResponse extends AbstractMessage {
     public Map<String, Double> travelTimes = new HashMap<>();
+
+    // little-endian values for the packed formats
+    public byte[] packed = null;
+    public List<String> links = null;
 }
@@ -0,0 +1,6 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+public class ZoneQuery extends AbstractMessage {
+    public String format = "float32"; // float32, float64
+    public boolean withLinks = false;
+}
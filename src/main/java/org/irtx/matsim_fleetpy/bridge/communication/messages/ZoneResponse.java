@@ -0,0 +1,19 @@
+package org.irtx.matsim_fleetpy.bridge.communication.messages;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+@JsonInclude(Include.NON_NULL)
+public class ZoneResponse extends AbstractMessage {
+    public double cellSize;
+    public List<String> zones;
+
+    // little-endian packed arrays
+    public byte[] centroids; // float64, x and y per zone
+    public byte[] linkZones; // int32 per link index, -1 if not in the network
+    public byte[] travelTimes; // zone x zone, row-major
+
+    public List<String> links = null;
+}
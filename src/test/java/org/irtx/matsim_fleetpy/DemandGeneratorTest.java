@@ -0,0 +1,130 @@
+package org.irtx.matsim_fleetpy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+public class DemandGeneratorTest {
+	static private PopulationFactory createFactory() {
+		return PopulationUtils.createPopulation(ConfigUtils.createConfig()).getFactory();
+	}
+
+	static private List<Person> generate(DemandGenerator generator, int requests, long seed, int threads) {
+		List<Person> persons = new ArrayList<>(requests);
+		generator.generate(createFactory(), requests, seed, threads, persons::add);
+		return persons;
+	}
+
+	static private Activity getActivity(Person person, int index) {
+		return (Activity) person.getPlans().get(0).getPlanElements().get(index);
+	}
+
+	// identifier, links and departure time of a request
+	static private String describe(Person person) {
+		return person.getId() + " " + getActivity(person, 0).getLinkId() + " " + getActivity(person, 2).getLinkId()
+				+ " " + getActivity(person, 0).getEndTime().seconds();
+	}
+
+	@Test
+	public void respectsTheMinimumDistance() {
+		Network network = TestScenarios.createGridNetwork(10, 100.0);
+		DemandGenerator generator = new DemandGenerator(network, 500.0);
+
+		for (Person person : generate(generator, 5000, 1, 1)) {
+			Link origin = network.getLinks().get(getActivity(person, 0).getLinkId());
+			Link destination = network.getLinks().get(getActivity(person, 2).getLinkId());
+
+			assertTrue(CoordUtils.calcEuclideanDistance(origin.getCoord(), destination.getCoord()) >= 500.0);
+		}
+	}
+
+	@Test
+	public void doesNotDependOnTheThreads() {
+		Network network = TestScenarios.createGridNetwork(10, 100.0);
+		DemandGenerator generator = new DemandGenerator(network, 200.0);
+
+		// several chunks
+		int requests = 2 * DemandGenerator.CHUNK_SIZE + 123;
+
+		List<String> sequential = generate(generator, requests, 42, 1).stream().map(DemandGeneratorTest::describe)
+				.toList();
+		List<String> parallel = generate(generator, requests, 42, 4).stream().map(DemandGeneratorTest::describe)
+				.toList();
+
+		assertEquals(requests, sequential.size());
+		assertEquals(sequential, parallel);
+		assertEquals("request_0", sequential.get(0).split(" ")[0]);
+
+		List<String> other = generate(generator, requests, 43, 4).stream().map(DemandGeneratorTest::describe)
+				.toList();
+		assertNotEquals(sequential, other);
+	}
+
+	/**
+	 * Three isolated links on a line, where the middle one is closer than the
+	 * minimum distance to both others. The pairs are drawn jointly, so the middle
+	 * link never occurs and both remaining pairs are equally likely, whatever the
+	 * weights of the links are.
+	 */
+	@Test
+	public void rejectsOriginAndDestinationJointly() {
+		Network network = NetworkUtils.createNetwork();
+
+		Link left = addIsolatedLink(network, "left", 0.0);
+		Link middle = addIsolatedLink(network, "middle", 500.0);
+		Link right = addIsolatedLink(network, "right", 1000.0);
+
+		DemandGenerator generator = new DemandGenerator(network, 600.0);
+
+		int requests = 20000;
+		int leftToRight = 0;
+
+		for (Person person : generate(generator, requests, 7, 2)) {
+			Id<Link> origin = getActivity(person, 0).getLinkId();
+			Id<Link> destination = getActivity(person, 2).getLinkId();
+
+			assertNotEquals(middle.getId(), origin);
+			assertNotEquals(middle.getId(), destination);
+			assertNotEquals(origin, destination);
+
+			if (origin.equals(left.getId())) {
+				assertEquals(right.getId(), destination);
+				leftToRight++;
+			}
+		}
+
+		// a binomial with p = 0.5 stays within five standard deviations
+		double deviation = Math.sqrt(requests * 0.25);
+		assertTrue(Math.abs(leftToRight - requests * 0.5) < 5.0 * deviation);
+	}
+
+	@Test
+	public void rejectsTooSmallNetworks() {
+		Network network = TestScenarios.createGridNetwork(3, 100.0);
+		assertThrows(IllegalArgumentException.class, () -> new DemandGenerator(network, 1000.0));
+	}
+
+	static private Link addIsolatedLink(Network network, String name, double x) {
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId(name + "_from"), new Coord(x - 50.0, 0.0));
+		Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId(name + "_to"), new Coord(x + 50.0, 0.0));
+		return TestScenarios.addLink(network, from, to, 100.0);
+	}
+}
@@ -0,0 +1,120 @@
+package org.irtx.matsim_fleetpy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleImpl;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
+import org.matsim.core.network.NetworkUtils;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Small networks and fleets for the tests.
+ */
+public class TestScenarios {
+	static public final double FREESPEED = 10.0;
+
+	private TestScenarios() {
+	}
+
+	static public String getNodeId(int i, int j) {
+		return "n" + i + "_" + j;
+	}
+
+	static public String getLinkId(int fromI, int fromJ, int toI, int toJ) {
+		return getNodeId(fromI, fromJ) + "-" + getNodeId(toI, toJ);
+	}
+
+	/**
+	 * Square grid of nodes with links in both directions between neighbours.
+	 */
+	static public Network createGridNetwork(int size, double spacing) {
+		Network network = NetworkUtils.createNetwork();
+		NetworkFactory factory = network.getFactory();
+
+		Node[][] nodes = new Node[size][size];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				nodes[i][j] = factory.createNode(Id.createNodeId(getNodeId(i, j)), new Coord(i * spacing, j * spacing));
+				network.addNode(nodes[i][j]);
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				if (i + 1 < size) {
+					addLink(network, nodes[i][j], nodes[i + 1][j], spacing);
+					addLink(network, nodes[i + 1][j], nodes[i][j], spacing);
+				}
+
+				if (j + 1 < size) {
+					addLink(network, nodes[i][j], nodes[i][j + 1], spacing);
+					addLink(network, nodes[i][j + 1], nodes[i][j], spacing);
+				}
+			}
+		}
+
+		return network;
+	}
+
+	static public Link addLink(Network network, Node from, Node to, double length) {
+		Link link = network.getFactory().createLink(Id.createLinkId(from.getId() + "-" + to.getId()), from, to);
+		link.setLength(length);
+		link.setFreespeed(FREESPEED);
+		link.setCapacity(1000.0);
+		link.setNumberOfLanes(1.0);
+		link.setAllowedModes(Set.of("car"));
+		network.addLink(link);
+		return link;
+	}
+
+	static public List<Link> sortedLinks(Network network) {
+		List<Link> links = new ArrayList<>(network.getLinks().values());
+		links.sort((a, b) -> a.getId().compareTo(b.getId()));
+		return links;
+	}
+
+	/**
+	 * Vehicles on random links, without any tasks in their schedules.
+	 */
+	static public Fleet createFleet(Network network, List<Link> links, int fleetSize, Random random) {
+		ImmutableMap.Builder<Id<DvrpVehicle>, DvrpVehicle> vehicles = ImmutableMap.builder();
+
+		for (int i = 0; i < fleetSize; i++) {
+			DvrpVehicleSpecification specification = ImmutableDvrpVehicleSpecification.newBuilder() //
+					.id(Id.create("test:" + i, DvrpVehicle.class)) //
+					.serviceBeginTime(0.0) //
+					.serviceEndTime(24.0 * 3600.0) //
+					.capacity(4) //
+					.startLinkId(links.get(random.nextInt(links.size())).getId()) //
+					.build();
+
+			DvrpVehicle vehicle = DvrpVehicleImpl.create(specification, network);
+			vehicles.put(vehicle.getId(), vehicle);
+		}
+
+		ImmutableMap<Id<DvrpVehicle>, DvrpVehicle> fleetVehicles = vehicles.build();
+		return () -> fleetVehicles;
+	}
+
+	/**
+	 * Vehicles of the fleet ordered by their index.
+	 */
+	static public List<DvrpVehicle> sortedVehicles(Fleet fleet) {
+		List<DvrpVehicle> vehicles = new ArrayList<>(fleet.getVehicles().values());
+		vehicles.sort((a, b) -> Integer.compare(a.getId().index(), b.getId().index()));
+		return vehicles;
+	}
+}
@@ -0,0 +1,177 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.irtx.matsim_fleetpy.TestScenarios;
+import org.irtx.matsim_fleetpy.bridge.InsertionManager.NewRequest;
+import org.irtx.matsim_fleetpy.bridge.InsertionManager.PlannedStop;
+import org.irtx.matsim_fleetpy.bridge.InsertionManager.VehicleSchedule;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.InsertionResponse;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+/**
+ * Insertions into small schedules on a grid, with new stops that are merged into
+ * planned stops on the same link.
+ */
+public class InsertionManagerTest {
+    static private final double STOP_DURATION = 30.0;
+    static private final double SERVICE_END_TIME = 86400.0;
+
+    static private Network network;
+    static private BridgeRouter router;
+
+    @BeforeAll
+    static public void createRouter() {
+        network = TestScenarios.createGridNetwork(5, 100.0);
+        router = new BridgeRouter(network, new FreeSpeedTravelTime(), 2, BridgeRouter.DEFAULT_CACHE_SIZE,
+                BridgeRouter.DEFAULT_CACHE_BIN_SIZE);
+    }
+
+    @AfterAll
+    static public void shutdownRouter() {
+        router.notifyShutdown(null);
+    }
+
+    static private Link getLink(int fromI, int fromJ, int toI, int toJ) {
+        return network.getLinks().get(Id.createLinkId(TestScenarios.getLinkId(fromI, fromJ, toI, toJ)));
+    }
+
+    static private PlannedStop createStop(Link link, int loadChange, double latestBeginTime) {
+        return new PlannedStop(link, Double.NEGATIVE_INFINITY, STOP_DURATION, loadChange, latestBeginTime);
+    }
+
+    static private NewRequest createRequest(Link pickupLink, Link dropoffLink) {
+        return new NewRequest(pickupLink, dropoffLink, 0.0, 10000.0, 10000.0);
+    }
+
+    private List<InsertionResponse.Insertion> evaluate(NewRequest request, VehicleSchedule schedule) {
+        return new InsertionManager(router).evaluateAll(List.of(request), List.of(schedule), 0.0, STOP_DURATION)
+                .get(0).get(0);
+    }
+
+    private double getTravelTime(Link from, Link to, double departureTime) {
+        return router.calcPath(from, to, departureTime).getTravelTime();
+    }
+
+    @Test
+    public void mergesThePickupIntoAPlannedStop() {
+        Link start = getLink(0, 0, 1, 0);
+        Link stop = getLink(2, 0, 3, 0);
+
+        VehicleSchedule schedule = new VehicleSchedule(start, 0.0, 0, 4, SERVICE_END_TIME, List.of( //
+                createStop(stop, 1, Double.POSITIVE_INFINITY), //
+                createStop(getLink(4, 0, 4, 1), -1, Double.POSITIVE_INFINITY)));
+
+        List<InsertionResponse.Insertion> insertions = evaluate(createRequest(stop, getLink(2, 2, 2, 3)), schedule);
+        assertFalse(insertions.isEmpty());
+
+        for (InsertionResponse.Insertion insertion : insertions) {
+            // a separate pickup before the stop on the same link is not offered
+            assertTrue(insertion.pickupIndex > 0);
+            assertEquals(insertion.pickupIndex == 1, insertion.pickupMerged);
+
+            if (insertion.pickupMerged) {
+                assertEquals(getTravelTime(start, stop, 0.0), insertion.pickupTime, 1e-6);
+            }
+        }
+
+        for (int k = 1; k < insertions.size(); k++) {
+            assertTrue(insertions.get(k - 1).detour <= insertions.get(k).detour);
+        }
+    }
+
+    @Test
+    public void mergesTheDropoffIntoAPlannedStop() {
+        Link start = getLink(0, 0, 1, 0);
+        Link stop = getLink(2, 0, 3, 0);
+
+        VehicleSchedule schedule = new VehicleSchedule(start, 0.0, 1, 4, SERVICE_END_TIME, List.of( //
+                createStop(stop, -1, Double.POSITIVE_INFINITY)));
+
+        // picked up where the vehicle is
+        List<InsertionResponse.Insertion> insertions = evaluate(createRequest(start, stop), schedule);
+
+        InsertionResponse.Insertion merged = insertions.stream().filter(insertion -> insertion.dropoffMerged)
+                .findFirst().orElseThrow();
+
+        assertEquals(0, merged.pickupIndex);
+        assertEquals(1, merged.dropoffIndex);
+        assertFalse(merged.pickupMerged);
+        assertEquals(0.0, merged.pickupTime, 1e-6);
+        assertEquals(STOP_DURATION + getTravelTime(start, stop, STOP_DURATION), merged.dropoffTime, 1e-6);
+
+        // only the new pickup stop delays the schedule
+        assertEquals(STOP_DURATION, merged.detour, 1e-6);
+
+        for (InsertionResponse.Insertion insertion : insertions) {
+            assertTrue(insertion.dropoffMerged || insertion.dropoffIndex != 0);
+        }
+    }
+
+    @Test
+    public void respectsTheWindowsOfPlannedStops() {
+        Link start = getLink(0, 0, 1, 0);
+        Link stop = getLink(2, 0, 3, 0);
+
+        // the planned stop is served just in time
+        double beginTime = getTravelTime(start, stop, 0.0);
+
+        VehicleSchedule schedule = new VehicleSchedule(start, 0.0, 0, 4, SERVICE_END_TIME, List.of( //
+                createStop(stop, 1, beginTime), //
+                createStop(getLink(4, 0, 4, 1), -1, Double.POSITIVE_INFINITY)));
+
+        List<InsertionResponse.Insertion> insertions = evaluate(
+                createRequest(getLink(0, 2, 0, 3), getLink(2, 4, 3, 4)), schedule);
+        assertFalse(insertions.isEmpty());
+
+        for (InsertionResponse.Insertion insertion : insertions) {
+            assertTrue(insertion.pickupIndex > 0);
+        }
+    }
+
+    @Test
+    public void respectsTheCapacity() {
+        Link start = getLink(0, 0, 1, 0);
+
+        // the passenger on board is dropped off at the only stop
+        VehicleSchedule schedule = new VehicleSchedule(start, 0.0, 1, 1, SERVICE_END_TIME, List.of( //
+                createStop(getLink(2, 0, 3, 0), -1, Double.POSITIVE_INFINITY)));
+
+        List<InsertionResponse.Insertion> insertions = evaluate(
+                createRequest(getLink(0, 2, 0, 3), getLink(2, 4, 3, 4)), schedule);
+
+        assertEquals(1, insertions.size());
+        assertEquals(1, insertions.get(0).pickupIndex);
+        assertEquals(1, insertions.get(0).dropoffIndex);
+    }
+
+    @Test
+    public void skipsVehiclesOutOfService() {
+        Link start = getLink(0, 0, 1, 0);
+        Link pickup = getLink(0, 2, 0, 3);
+
+        VehicleSchedule schedule = new VehicleSchedule(start, 0.0, 0, 4, SERVICE_END_TIME, List.of());
+
+        List<List<List<InsertionResponse.Insertion>>> results = new InsertionManager(router).evaluateAll(
+                List.of(createRequest(pickup, getLink(2, 4, 3, 4))), Arrays.asList(null, schedule), 0.0,
+                STOP_DURATION);
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).get(0).isEmpty());
+
+        List<InsertionResponse.Insertion> insertions = results.get(1).get(0);
+        assertEquals(1, insertions.size());
+        assertEquals(getTravelTime(start, pickup, 0.0), insertions.get(0).pickupTime, 1e-6);
+    }
+}
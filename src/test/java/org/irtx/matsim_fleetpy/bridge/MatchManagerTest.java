@@ -0,0 +1,114 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.irtx.matsim_fleetpy.TestScenarios;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.MatchQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.MatchResponse;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+/**
+ * Splitting the candidate pairs into components must not change the optimum
+ * of the whole problem.
+ */
+public class MatchManagerTest {
+    static private BridgeRouter router;
+
+    @BeforeAll
+    static public void createRouter() {
+        router = new BridgeRouter(TestScenarios.createGridNetwork(3, 100.0), new FreeSpeedTravelTime(), 2,
+                BridgeRouter.DEFAULT_CACHE_SIZE, BridgeRouter.DEFAULT_CACHE_BIN_SIZE);
+    }
+
+    @AfterAll
+    static public void shutdownRouter() {
+        router.notifyShutdown(null);
+    }
+
+    @Test
+    public void splitsIntoComponentsWithoutChangingTheOptimum() {
+        MatchManager manager = new MatchManager(router);
+        Random random = new Random(0);
+
+        for (int instance = 0; instance < 500; instance++) {
+            int requests = 1 + random.nextInt(7);
+            int vehicles = 1 + random.nextInt(7);
+
+            // pairs only connect requests and vehicles of the same group
+            int groups = 1 + random.nextInt(3);
+            int[] requestGroups = random.ints(requests, 0, groups).toArray();
+            int[] vehicleGroups = random.ints(vehicles, 0, groups).toArray();
+
+            int pairs = 0;
+            int[] pairRequests = new int[requests * vehicles];
+            int[] pairVehicles = new int[requests * vehicles];
+            double[] costs = new double[requests * vehicles];
+
+            for (int i = 0; i < requests; i++) {
+                for (int j = 0; j < vehicles; j++) {
+                    if (requestGroups[i] == vehicleGroups[j] && random.nextDouble() < 0.7) {
+                        pairRequests[pairs] = i;
+                        pairVehicles[pairs] = j;
+                        costs[pairs++] = random.nextDouble() < 0.1 ? Double.POSITIVE_INFINITY : random.nextInt(20);
+                    }
+                }
+            }
+
+            MatchQuery query = new MatchQuery();
+            query.requests = requests;
+            query.vehicles = vehicles;
+            query.pairRequests = Arrays.copyOf(pairRequests, pairs);
+            query.pairVehicles = Arrays.copyOf(pairVehicles, pairs);
+            query.costs = Arrays.copyOf(costs, pairs);
+            query.maximumCost = random.nextBoolean() ? null : 15.0;
+            query.unassignedCost = random.nextBoolean() ? null : 10.0;
+
+            double[] queryCosts = query.costs.clone();
+            MatchResponse response = manager.handle(query, 0.0, null);
+
+            // the query is not modified by dropping pairs
+            assertArrayEquals(queryCosts, query.costs);
+            assertEquals(pairs, query.pairRequests.length);
+
+            // the pairs that the manager keeps
+            double maximumCost = query.maximumCost == null ? Double.POSITIVE_INFINITY : query.maximumCost;
+            double[] keptCosts = query.costs.clone();
+
+            for (int a = 0; a < keptCosts.length; a++) {
+                if (keptCosts[a] > maximumCost) {
+                    keptCosts[a] = Double.POSITIVE_INFINITY;
+                }
+            }
+
+            double[][] matrix = MatchingSolverTest.getCostMatrix(requests, vehicles, query.pairRequests,
+                    query.pairVehicles, keptCosts);
+            MatchingSolverTest.assertValid(matrix, vehicles, response.assignment);
+
+            // without an unassigned cost, the number of pairs is maximized first
+            double unassignedCost = query.unassignedCost == null ? 1e6 : query.unassignedCost;
+
+            assertEquals(MatchingSolverTest.findOptimum(matrix, vehicles, unassignedCost),
+                    MatchingSolverTest.getTotalCost(matrix, response.assignment, unassignedCost), 1e-9,
+                    "Instance " + instance);
+            assertEquals(MatchingSolverTest.getTotalCost(matrix, response.assignment, 0.0), response.cost, 1e-9);
+        }
+    }
+
+    @Test
+    public void rejectsNaNCosts() {
+        MatchQuery query = new MatchQuery();
+        query.requests = 1;
+        query.vehicles = 2;
+        query.costs = new double[] { 1.0, Double.NaN };
+
+        assertThrows(IllegalArgumentException.class, () -> new MatchManager(router).handle(query, 0.0, null));
+    }
+}
@@ -0,0 +1,146 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the solver with an enumeration of all assignments on small random
+ * instances.
+ */
+public class MatchingSolverTest {
+    /**
+     * Cheapest cost per row and column, infinite if there is no arc.
+     */
+    static double[][] getCostMatrix(int rows, int columns, int[] arcRows, int[] arcColumns, double[] costs) {
+        double[][] matrix = new double[rows][columns];
+        for (double[] row : matrix) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+
+        for (int a = 0; a < costs.length; a++) {
+            matrix[arcRows[a]][arcColumns[a]] = Math.min(matrix[arcRows[a]][arcColumns[a]], costs[a]);
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Total cost of an assignment, including the unassigned cost of every row
+     * that is not assigned.
+     */
+    static double getTotalCost(double[][] matrix, int[] assignment, double unassignedCost) {
+        double total = 0.0;
+
+        for (int i = 0; i < assignment.length; i++) {
+            total += assignment[i] < 0 ? unassignedCost : matrix[i][assignment[i]];
+        }
+
+        return total;
+    }
+
+    /**
+     * Minimum total cost over all assignments.
+     */
+    static double findOptimum(double[][] matrix, int columns, double unassignedCost) {
+        return findOptimum(matrix, 0, new boolean[columns], unassignedCost);
+    }
+
+    static private double findOptimum(double[][] matrix, int row, boolean[] used, double unassignedCost) {
+        if (row == matrix.length) {
+            return 0.0;
+        }
+
+        double best = unassignedCost + findOptimum(matrix, row + 1, used, unassignedCost);
+
+        for (int j = 0; j < used.length; j++) {
+            if (!used[j] && matrix[row][j] < Double.POSITIVE_INFINITY) {
+                used[j] = true;
+                best = Math.min(best, matrix[row][j] + findOptimum(matrix, row + 1, used, unassignedCost));
+                used[j] = false;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Every column is used at most once and only along arcs.
+     */
+    static void assertValid(double[][] matrix, int columns, int[] assignment) {
+        boolean[] used = new boolean[columns];
+
+        for (int i = 0; i < assignment.length; i++) {
+            if (assignment[i] >= 0) {
+                assertTrue(matrix[i][assignment[i]] < Double.POSITIVE_INFINITY, "Assigned without arc");
+                assertTrue(!used[assignment[i]], "Column assigned twice");
+                used[assignment[i]] = true;
+            }
+        }
+    }
+
+    @Test
+    public void findsTheOptimumOfRandomInstances() {
+        Random random = new Random(0);
+
+        for (int instance = 0; instance < 2000; instance++) {
+            int rows = 1 + random.nextInt(6);
+            int columns = 1 + random.nextInt(6);
+            double density = random.nextDouble();
+
+            int arcs = 0;
+            int[] arcRows = new int[2 * rows * columns];
+            int[] arcColumns = new int[arcRows.length];
+            double[] costs = new double[arcRows.length];
+
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    // some pairs are given twice
+                    int copies = random.nextDouble() < density ? 1 + random.nextInt(2) : 0;
+
+                    for (int c = 0; c < copies; c++) {
+                        arcRows[arcs] = i;
+                        arcColumns[arcs] = j;
+                        costs[arcs++] = random.nextInt(20) - 5; // with ties and negative costs
+                    }
+                }
+            }
+
+            arcRows = Arrays.copyOf(arcRows, arcs);
+            arcColumns = Arrays.copyOf(arcColumns, arcs);
+            costs = Arrays.copyOf(costs, arcs);
+
+            double unassignedCost = new double[] { 0.0, 8.0, 1000.0 }[random.nextInt(3)];
+
+            int[] assignment = MatchingSolver.solve(rows, columns, arcRows, arcColumns, costs, unassignedCost);
+            assertEquals(rows, assignment.length);
+
+            double[][] matrix = getCostMatrix(rows, columns, arcRows, arcColumns, costs);
+            assertValid(matrix, columns, assignment);
+            assertEquals(findOptimum(matrix, columns, unassignedCost),
+                    getTotalCost(matrix, assignment, unassignedCost), 1e-9, "Instance " + instance);
+        }
+    }
+
+    @Test
+    public void leavesRowsWithoutArcsUnassigned() {
+        int[] assignment = MatchingSolver.solve(3, 2, new int[] { 0, 2 }, new int[] { 1, 1 },
+                new double[] { 5.0, 1.0 }, 100.0);
+
+        assertArrayEquals(new int[] { -1, -1, 1 }, assignment);
+    }
+
+    @Test
+    public void prefersMorePairsWithALargeUnassignedCost() {
+        // the cheapest pair (0, 0) blocks the second row
+        int[] assignment = MatchingSolver.solve(2, 2, new int[] { 0, 0, 1 }, new int[] { 0, 1, 0 },
+                new double[] { 1.0, 10.0, 2.0 }, 1000.0);
+
+        assertArrayEquals(new int[] { 1, 0 }, assignment);
+    }
+}
@@ -0,0 +1,125 @@
+package org.irtx.matsim_fleetpy.bridge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.irtx.matsim_fleetpy.TestScenarios;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NearestVehiclesQuery;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.NearestVehiclesResponse;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+
+/**
+ * The ring search over the grid must return the same vehicles as a linear scan
+ * over all vehicles, for cells that are much smaller and much larger than the
+ * distances between the vehicles.
+ */
+public class VehicleIndexTest {
+    static private final List<String> STATES = List.of("stay", "drive", "stop");
+
+    private record Position(Link link, String state) {
+    }
+
+    static private List<String> findByScan(Map<DvrpVehicle, Position> positions, Link origin, int k,
+            List<String> states) {
+        List<DvrpVehicle> candidates = new ArrayList<>();
+
+        for (var entry : positions.entrySet()) {
+            if (states == null || states.contains(entry.getValue().state())) {
+                candidates.add(entry.getKey());
+            }
+        }
+
+        candidates.sort(Comparator
+                .comparingDouble((DvrpVehicle vehicle) -> distance(positions.get(vehicle).link(), origin))
+                .thenComparingInt(vehicle -> vehicle.getId().index()));
+
+        List<String> result = new ArrayList<>();
+        for (DvrpVehicle vehicle : candidates.subList(0, Math.min(k, candidates.size()))) {
+            result.add(vehicle.getId().toString());
+        }
+
+        return result;
+    }
+
+    static private double distance(Link link, Link origin) {
+        double dx = link.getCoord().getX() - origin.getCoord().getX();
+        double dy = link.getCoord().getY() - origin.getCoord().getY();
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = { 25.0, 150.0, 10000.0 })
+    public void findsTheSameVehiclesAsAScan(double cellSize) {
+        Network network = TestScenarios.createGridNetwork(15, 100.0);
+        List<Link> links = TestScenarios.sortedLinks(network);
+
+        Random random = new Random(0);
+        Fleet fleet = TestScenarios.createFleet(network, links, 150, random);
+        List<DvrpVehicle> vehicles = TestScenarios.sortedVehicles(fleet);
+
+        VehicleIndex index = new VehicleIndex(cellSize);
+        IdEncoder ids = new IdEncoder(network, fleet, false);
+        Map<DvrpVehicle, Position> positions = new HashMap<>();
+
+        // vehicles are moved several times, also within their cells
+        for (int round = 0; round < 3; round++) {
+            for (DvrpVehicle vehicle : vehicles) {
+                if (round > 0 && random.nextBoolean()) {
+                    continue;
+                }
+
+                Position position = new Position(links.get(random.nextInt(links.size())),
+                        STATES.get(random.nextInt(STATES.size())));
+                positions.put(vehicle, position);
+                index.update(vehicle, position.link(), position.state());
+            }
+
+            for (List<String> states : List.of(List.<String> of(), List.of("stay"), List.of("stay", "drive"))) {
+                NearestVehiclesQuery query = new NearestVehiclesQuery();
+                query.k = states.size() == 1 ? 100 : 7; // more than there are vehicles in the state
+                query.states = states.isEmpty() ? null : states;
+
+                List<Link> origins = new ArrayList<>();
+                for (int o = 0; o < 20; o++) {
+                    Link origin = links.get(random.nextInt(links.size()));
+                    origins.add(origin);
+                    query.origins.add(origin.getId().toString());
+                }
+
+                NearestVehiclesResponse response = index.handle(query, 0.0, ids);
+
+                for (int o = 0; o < origins.size(); o++) {
+                    List<String> expected = findByScan(positions, origins.get(o), query.k, query.states);
+                    assertEquals(expected, response.vehicles.get(o));
+
+                    for (int r = 0; r < expected.size(); r++) {
+                        DvrpVehicle vehicle = ids.decodeVehicle(expected.get(r));
+                        assertEquals(distance(positions.get(vehicle).link(), origins.get(o)),
+                                response.distances.get(o).get(r), 1e-9);
+                    }
+                }
+            }
+        }
+
+        // the grid is cleared for the next iteration
+        index.notifyIterationStarts(null);
+
+        NearestVehiclesQuery query = new NearestVehiclesQuery();
+        query.origins.add(links.get(0).getId().toString());
+
+        NearestVehiclesResponse response = index.handle(query, 0.0, ids);
+        assertTrue(response.vehicles.get(0).isEmpty());
+    }
+}
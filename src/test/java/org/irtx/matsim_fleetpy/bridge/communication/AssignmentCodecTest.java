@@ -0,0 +1,221 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.irtx.matsim_fleetpy.TestScenarios;
+import org.irtx.matsim_fleetpy.bridge.IdEncoder;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.AbstractMessage;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.Assignment;
+import org.irtx.matsim_fleetpy.bridge.communication.messages.State;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+import org.matsim.contrib.dvrp.optimizer.Request;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * The streaming state writer and assignment reader must produce and accept the
+ * same messages as the object mapper, for both codecs.
+ */
+public class AssignmentCodecTest {
+    static private Network network;
+    static private List<Link> links;
+    static private List<DvrpVehicle> vehicles;
+    static private Fleet fleet;
+
+    @BeforeAll
+    static public void createScenario() {
+        network = TestScenarios.createGridNetwork(4, 100.0);
+        links = TestScenarios.sortedLinks(network);
+        fleet = TestScenarios.createFleet(network, links, 3, new Random(0));
+        vehicles = TestScenarios.sortedVehicles(fleet);
+    }
+
+    static private ObjectMapper createMapper(String codec) {
+        return codec.equals("cbor") ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+    }
+
+    // records the calls as strings
+    static private class RecordingHandler implements AssignmentHandler {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void startAssignment() {
+            calls.add("start");
+        }
+
+        @Override
+        public void vehicle(DvrpVehicle vehicle) {
+            calls.add("vehicle " + vehicle.getId());
+        }
+
+        @Override
+        public void stop(Link link, List<String> pickup, List<String> dropoff, List<Link> route,
+                double earliestStartTime, double stopDuration, String id) {
+            List<String> routeIds = null;
+
+            if (route != null) {
+                routeIds = new ArrayList<>();
+
+                for (Link routeLink : route) {
+                    routeIds.add(routeLink.getId().toString());
+                }
+            }
+
+            calls.add("stop " + link.getId() + " " + pickup + " " + dropoff + " " + routeIds + " "
+                    + earliestStartTime + " " + stopDuration + " " + id);
+        }
+
+        @Override
+        public void rejection(String requestId) {
+            calls.add("rejection " + requestId);
+        }
+
+        @Override
+        public void waitFor(double waitFor) {
+            calls.add("waitFor " + waitFor);
+        }
+    }
+
+    static private Assignment.Stop createStop(Link link, List<String> pickup, List<String> dropoff,
+            List<String> route, double earliestStartTime, double stopDuration, String id) {
+        Assignment.Stop stop = new Assignment.Stop();
+        stop.link = link.getId().toString();
+        stop.pickup = new ArrayList<>(pickup);
+        stop.dropoff = new ArrayList<>(dropoff);
+        stop.route = route;
+        stop.earliestStartTime = earliestStartTime;
+        stop.stopDuration = stopDuration;
+        stop.id = id;
+        return stop;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "json", "cbor" })
+    public void readsAssignmentsOfTheObjectMapper(String codec) throws IOException {
+        ObjectMapper mapper = createMapper(codec);
+        IdEncoder ids = new IdEncoder(network, fleet, false);
+
+        Link first = links.get(0);
+        Link second = links.get(1);
+
+        Assignment assignment = new Assignment();
+        assignment.stops = new LinkedHashMap<>();
+        assignment.stops.put(vehicles.get(0).getId().toString(), List.of( //
+                createStop(first, List.of("r1", "r2"), List.of(), null, 100.0, 60.0, "s1"), //
+                createStop(second, List.of(), List.of("r1"),
+                        List.of(first.getId().toString(), second.getId().toString()), 0.0, 30.0, null)));
+        assignment.stops.put(vehicles.get(1).getId().toString(), List.of());
+        assignment.rejections = List.of("r3");
+        assignment.waitFor = 30.0;
+
+        RecordingHandler handler = new RecordingHandler();
+        assertTrue(new AssignmentReader(mapper.getFactory()).read(mapper.writeValueAsBytes(assignment), ids, handler));
+
+        assertEquals(List.of( //
+                "start", //
+                "vehicle " + vehicles.get(0).getId(), //
+                "stop " + first.getId() + " [r1, r2] [] null 100.0 60.0 s1", //
+                "stop " + second.getId() + " [] [r1] [" + first.getId() + ", " + second.getId() + "] 0.0 30.0 null", //
+                "vehicle " + vehicles.get(1).getId(), //
+                "rejection r3", //
+                "waitFor 30.0"), handler.calls);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "json", "cbor" })
+    public void readsIndexedLinks(String codec) throws IOException {
+        ObjectMapper mapper = createMapper(codec);
+        IdEncoder ids = new IdEncoder(network, fleet, true);
+
+        Link first = links.get(2);
+        Link second = links.get(3);
+
+        Map<String, Object> stop = new LinkedHashMap<>();
+        stop.put("link", first.getId().index());
+        stop.put("pickup", List.of("r1"));
+        stop.put("route", List.of(second.getId().index(), first.getId().index()));
+        stop.put("stopDuration", 60.0);
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("@message", "assignment");
+        message.put("stops", Map.of(String.valueOf(vehicles.get(2).getId().index()), List.of(stop)));
+        message.put("waitFor", 0.0);
+
+        RecordingHandler handler = new RecordingHandler();
+        assertTrue(new AssignmentReader(mapper.getFactory()).read(mapper.writeValueAsBytes(message), ids, handler));
+
+        assertEquals(List.of( //
+                "start", //
+                "vehicle " + vehicles.get(2).getId(), //
+                "stop " + first.getId() + " [r1] [] [" + second.getId() + ", " + first.getId()
+                        + "] -Infinity 60.0 null", //
+                "waitFor 0.0"), handler.calls);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "json", "cbor" })
+    public void leavesOtherMessagesToTheObjectMapper(String codec) throws IOException {
+        ObjectMapper mapper = createMapper(codec);
+        IdEncoder ids = new IdEncoder(network, fleet, false);
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("@message", "finalization");
+
+        RecordingHandler handler = new RecordingHandler();
+        assertFalse(new AssignmentReader(mapper.getFactory()).read(mapper.writeValueAsBytes(message), ids, handler));
+        assertTrue(handler.calls.isEmpty());
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "json,false", "json,true", "cbor,false", "cbor,true" })
+    public void writesStatesLikeTheObjectMapper(String codec, boolean indexed) throws IOException {
+        ObjectMapper mapper = createMapper(codec);
+        IdEncoder ids = new IdEncoder(network, fleet, indexed);
+
+        StateBuffer state = new StateBuffer();
+        state.start(fleet.getVehicles().values());
+        state.clear(3600.0);
+
+        DvrpVehicle driving = vehicles.get(0);
+        state.setVehicle(driving, "drive", links.get(0), 3610.0, links.get(1), 3620.0);
+        state.addFinished(driving, List.of("s1", "s2"));
+        state.select(driving);
+
+        DvrpVehicle staying = vehicles.get(1);
+        state.setVehicle(staying, "stay", links.get(2), 3600.0, links.get(2), 0.0);
+        state.select(staying);
+
+        state.addPickedUp(Id.create("r1", Request.class), driving.getId());
+        state.addDroppingOff(Id.create("r2", Request.class), staying.getId());
+        state.addSubmitted(Id.create("r3", Request.class), links.get(3), links.get(4), 3600.0, 3900.0, 4500.0);
+
+        StateWriter writer = new StateWriter(mapper.getFactory(), indexed);
+        int size = writer.write(state, null);
+
+        AbstractMessage message = mapper.readValue(writer.getBuffer(), 0, size, AbstractMessage.class);
+        assertTrue(message instanceof State);
+
+        JsonNode expected = mapper.valueToTree(state.toState(ids));
+        JsonNode actual = mapper.valueToTree(message);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,150 @@
+package org.irtx.matsim_fleetpy.bridge.communication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.irtx.matsim_fleetpy.TestScenarios;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.Fleet;
+
+/**
+ * Reads the shared file back with the layout that is documented for the
+ * dispatchers.
+ */
+public class SharedStateWriterTest {
+    @TempDir
+    Path directory;
+
+    // reads a column of the documented layout
+    static private class SharedFile {
+        final ByteBuffer buffer;
+        final int vehicles;
+
+        SharedFile(Path path) throws IOException {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+            vehicles = buffer.getInt(16);
+        }
+
+        long getSequence() {
+            return buffer.getLong(8);
+        }
+
+        double getTime() {
+            return buffer.getDouble(24);
+        }
+
+        double getCurrentExitTime(int slot) {
+            return buffer.getDouble(64 + slot * 8);
+        }
+
+        double getDivergeTime(int slot) {
+            return buffer.getDouble(64 + vehicles * 8 + slot * 8);
+        }
+
+        int getCurrentLink(int slot) {
+            return buffer.getInt(64 + vehicles * 16 + slot * 4);
+        }
+
+        int getDivergeLink(int slot) {
+            return buffer.getInt(64 + vehicles * 20 + slot * 4);
+        }
+
+        byte getState(int slot) {
+            return buffer.get(64 + vehicles * 24 + slot);
+        }
+
+        void assertEmpty(int slot) {
+            assertEquals(Double.NEGATIVE_INFINITY, getCurrentExitTime(slot));
+            assertEquals(Double.NEGATIVE_INFINITY, getDivergeTime(slot));
+            assertEquals(-1, getCurrentLink(slot));
+            assertEquals(-1, getDivergeLink(slot));
+            assertEquals(-1, getState(slot));
+        }
+    }
+
+    @Test
+    public void writesTheDocumentedLayout() throws IOException {
+        Network network = TestScenarios.createGridNetwork(3, 100.0);
+        List<Link> links = TestScenarios.sortedLinks(network);
+        Fleet fleet = TestScenarios.createFleet(network, links, 2, new Random(0));
+        List<DvrpVehicle> vehicles = TestScenarios.sortedVehicles(fleet);
+
+        int slots = Id.getNumberOfIds(DvrpVehicle.class);
+        Path path = directory.resolve("state");
+
+        SharedStateWriter writer = new SharedStateWriter(path.toString());
+        writer.start(slots);
+
+        SharedFile file = new SharedFile(path);
+        assertEquals(64 + slots * 25, file.buffer.capacity());
+        assertEquals(0x4650534D, file.buffer.getInt(0));
+        assertEquals(1, file.buffer.getInt(4));
+        assertEquals(2, file.getSequence());
+        assertEquals(slots, file.vehicles);
+        assertEquals(Double.NaN, file.getTime());
+
+        for (int slot = 0; slot < slots; slot++) {
+            file.assertEmpty(slot);
+        }
+
+        StateBuffer state = new StateBuffer();
+        state.start(fleet.getVehicles().values());
+        state.clear(100.0);
+
+        DvrpVehicle driving = vehicles.get(0);
+        state.setVehicle(driving, "drive", links.get(0), 110.0, links.get(1), 120.0);
+        state.select(driving);
+
+        DvrpVehicle staying = vehicles.get(1);
+        state.setVehicle(staying, "stay", links.get(2), 100.0, links.get(2), 0.0);
+
+        assertEquals(4, writer.write(state));
+
+        file = new SharedFile(path);
+        assertEquals(4, file.getSequence());
+        assertEquals(100.0, file.getTime());
+
+        int slot = driving.getId().index();
+        assertEquals(110.0, file.getCurrentExitTime(slot));
+        assertEquals(120.0, file.getDivergeTime(slot));
+        assertEquals(links.get(0).getId().index(), file.getCurrentLink(slot));
+        assertEquals(links.get(1).getId().index(), file.getDivergeLink(slot));
+        assertEquals(2, file.getState(slot));
+
+        // only the selected vehicles are written
+        file.assertEmpty(staying.getId().index());
+
+        // the mapping is reused and the slots are reset, the sequence keeps increasing
+        writer.start(slots);
+
+        file = new SharedFile(path);
+        assertEquals(6, file.getSequence());
+        file.assertEmpty(slot);
+
+        // the file is recreated for another number of vehicles
+        writer.start(slots + 3);
+
+        file = new SharedFile(path);
+        assertEquals(64 + (slots + 3) * 25, file.buffer.capacity());
+        assertEquals(8, file.getSequence());
+        assertEquals(slots + 3, file.vehicles);
+
+        for (int k = 0; k < slots + 3; k++) {
+            file.assertEmpty(k);
+        }
+
+        writer.close();
+    }
+}